@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.benchmark;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Generates the benchmark workbooks. The content only depends on the format and the number of cells, so every run
+ * measures the same files; generated files are reused from the fixture directory.
+ * <p>
+ * Each workbook has one sheet of {@link #COLUMNS} columns below a header row. The columns cycle through integers,
+ * strings, decimals, booleans and formulas over the integer column, which is how the demo workbook mixes them.
+ */
+public class FixtureGenerator {
+
+    public static final int COLUMNS = 20;
+    public static final String FIXTURE_DIRECTORY_PROPERTY = "jyexcel.benchmark.fixtures";
+
+    private static final long SEED = 20180330L;
+    private static final String[] NAMES = {"Tom", "Carol", "Rick", "Anna", "Badari", "Lena", "Omar", "Yuki"};
+
+    public static int getRowCount(int cells) {
+        return Math.max(cells / COLUMNS, 1);
+    }
+
+    /**
+     * Returns the fixture for the given format (xls or xlsx) and number of cells, generating it on first use.
+     */
+    public static synchronized File getFixture(String format, int cells) throws IOException {
+        File directory = new File(System.getProperty(FIXTURE_DIRECTORY_PROPERTY,
+                new File(System.getProperty("java.io.tmpdir"), "jyexcel-benchmark").getPath()));
+        File fixture = new File(directory, "fixture-" + cells + "." + format);
+        if (!fixture.isFile()) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create the fixture directory " + directory + ".");
+            }
+            generate(format, cells, fixture);
+        }
+        return fixture;
+    }
+
+    /**
+     * Copies the fixture into a new temporary file, for benchmarks which change and save the workbook.
+     */
+    public static File copyFixture(String format, int cells) throws IOException {
+        File copy = File.createTempFile("jyexcel-benchmark", "." + format);
+        Files.copy(getFixture(format, cells).toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    static void generate(String format, int cells, File target) throws IOException {
+        Workbook workbook;
+        if ("xlsx".equals(format)) {
+            workbook = new SXSSFWorkbook(SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+        } else if ("xls".equals(format)) {
+            workbook = new HSSFWorkbook();
+        } else {
+            throw new IllegalArgumentException("Please make sure you use either xlsx or xls format.");
+        }
+
+        Random random = new Random(SEED);
+        Sheet sheet = workbook.createSheet("Sheet1");
+        Row header = sheet.createRow(0);
+        for (int j = 0; j < COLUMNS; j++) {
+            header.createCell(j).setCellValue("Column " + j);
+        }
+
+        int rowCount = getRowCount(cells);
+        for (int i = 1; i <= rowCount; i++) {
+            Row row = sheet.createRow(i);
+            for (int j = 0; j < COLUMNS; j++) {
+                Cell cell = row.createCell(j);
+                switch (j % 5) {
+                    case 0:
+                        cell.setCellValue(random.nextInt(100000));
+                        break;
+                    case 1:
+                        cell.setCellValue(NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(1000));
+                        break;
+                    case 2:
+                        cell.setCellValue(Math.round(random.nextDouble() * 10000) / 100.0);
+                        break;
+                    case 3:
+                        cell.setCellValue(random.nextBoolean());
+                        break;
+                    default:
+                        cell.setCellFormula(columnName(j - 4) + (i + 1) + "*2");
+                        break;
+                }
+            }
+        }
+
+        File temp = new File(target.getPath() + ".tmp");
+        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(temp))) {
+            workbook.write(outputStream);
+        } finally {
+            if (workbook instanceof SXSSFWorkbook) {
+                ((SXSSFWorkbook) workbook).dispose();
+            }
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String columnName(int column) {
+        StringBuilder name = new StringBuilder();
+        for (int i = column; i >= 0; i = i / 26 - 1) {
+            name.insert(0, (char) ('A' + i % 26));
+        }
+        return name.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (String format : new String[]{"xls", "xlsx"}) {
+            for (int cells : new int[]{1000, 100000, 1000000}) {
+                System.out.println(getFixture(format, cells));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.benchmark;
+
+import com.kbn.excel.keyword.ExcelKeywords;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of the single keywords on an opened fixture. Run with {@code -prof gc} (the benchmark profile does) to get
+ * the allocation rate of each keyword as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class KeywordBenchmark {
+
+    private static final int COLUMN_BEYOND_DATA = FixtureGenerator.COLUMNS;
+
+    @Param({"xls", "xlsx"})
+    public String format;
+
+    @Param({"1000", "100000", "1000000"})
+    public int cells;
+
+    private ExcelKeywords excelKeywords;
+    private File workbookFile;
+    private int rowCount;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void openWorkbook() throws IOException {
+        workbookFile = FixtureGenerator.copyFixture(format, cells);
+        rowCount = FixtureGenerator.getRowCount(cells);
+        excelKeywords = new ExcelKeywords();
+        excelKeywords.openExcel(workbookFile.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void closeWorkbook() throws IOException {
+        excelKeywords.closeExcel();
+        Files.deleteIfExists(workbookFile.toPath());
+    }
+
+    /**
+     * Cycles through the data rows, so the write benchmarks don't keep hitting one cached cell.
+     */
+    private int nextRow() {
+        next = next % rowCount + 1;
+        return next;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void openExcel() {
+        excelKeywords.openExcel(workbookFile.getPath(), "benchmark");
+        excelKeywords.closeExcel("benchmark");
+    }
+
+    @Benchmark
+    public String getCellDataForString() {
+        return excelKeywords.getCellData(nextRow(), 1);
+    }
+
+    @Benchmark
+    public String getCellDataForFormula() {
+        return excelKeywords.getCellData(nextRow(), 4);
+    }
+
+    @Benchmark
+    public String[] getRowValues() {
+        return excelKeywords.getRowValues(nextRow(), true);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String[] getColumnValues() {
+        return excelKeywords.getColumnValues(1, true);
+    }
+
+    @Benchmark
+    public void setCellValueWithNumber() {
+        excelKeywords.setCellValueWithNumber(42.5, nextRow(), 2);
+    }
+
+    @Benchmark
+    public void setCellValueWithString() {
+        excelKeywords.setCellValueWithString("benchmark", nextRow(), 1);
+    }
+
+    @Benchmark
+    public void setCellValueWithFormula() {
+        int row = nextRow();
+        excelKeywords.setCellValueWithFormula("A" + (row + 1) + "*3", row, 4);
+    }
+
+    @Benchmark
+    public void setCellValueWithBoolean() {
+        excelKeywords.setCellValueWithBoolean("true", nextRow(), 3);
+    }
+
+    @Benchmark
+    public void setCellValueWithDate() {
+        excelKeywords.setCellValueWithDate("03-30-2018", nextRow(), COLUMN_BEYOND_DATA);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveExcel() {
+        excelKeywords.saveExcel();
+    }
+}
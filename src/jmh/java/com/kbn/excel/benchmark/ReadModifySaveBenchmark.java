@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.benchmark;
+
+import com.kbn.excel.keyword.ExcelKeywords;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end scenarios the way a test suite runs them: open a fixture, verify or change some cells and save. Every
+ * invocation starts from a fresh copy of the fixture, so the measured time includes all the work of the keywords.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ReadModifySaveBenchmark {
+
+    private static final int CHANGED_ROWS = 100;
+
+    @Param({"xls", "xlsx"})
+    public String format;
+
+    @Param({"1000", "100000", "1000000"})
+    public int cells;
+
+    private File workbookFile;
+    private int rowCount;
+
+    @Setup(Level.Invocation)
+    public void copyFixture() throws IOException {
+        workbookFile = FixtureGenerator.copyFixture(format, cells);
+        rowCount = FixtureGenerator.getRowCount(cells);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteCopy() throws IOException {
+        Files.deleteIfExists(workbookFile.toPath());
+    }
+
+    @Benchmark
+    public void readModifySave() {
+        ExcelKeywords excelKeywords = new ExcelKeywords();
+        excelKeywords.openExcel(workbookFile.getPath());
+        excelKeywords.getColumnValues(0, false);
+        for (int i = 1; i <= Math.min(CHANGED_ROWS, rowCount); i++) {
+            excelKeywords.setCellValueWithNumber(i, i, 0);
+            excelKeywords.setCellValueWithString("changed " + i, i, 1);
+        }
+        excelKeywords.evaluateAllFormulas();
+        excelKeywords.saveExcel();
+        excelKeywords.closeExcel();
+    }
+
+    @Benchmark
+    public List<?> openReadOnlyAndVerify() throws IOException, InvalidFormatException {
+        ExcelKeywords excelKeywords = new ExcelKeywords();
+        excelKeywords.openExcelReadOnly(workbookFile.getPath());
+        excelKeywords.getColumnValues(1, false);
+        List<?> rows = excelKeywords.getRangeValues(0, 0, Math.min(CHANGED_ROWS, rowCount), -1, true);
+        excelKeywords.closeExcel();
+        return rows;
+    }
+}
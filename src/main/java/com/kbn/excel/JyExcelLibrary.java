@@ -17,21 +17,31 @@
 
 package com.kbn.excel;
 
+import com.kbn.excel.index.KeywordIndex;
+import com.kbn.excel.metrics.KeywordMetrics;
 import org.robotframework.javalib.library.AnnotationLibrary;
 import org.robotframework.javalib.library.KeywordDocumentationRepository;
 import org.robotframework.javalib.library.RobotJavaLibrary;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
 
 public class JyExcelLibrary implements KeywordDocumentationRepository, RobotJavaLibrary{
     public static final String ROBOT_LIBRARY_SCOPE = "GLOBAL";
+    public static final int ROBOT_LISTENER_API_VERSION = 2;
     public static JyExcelLibrary instance;
-    private final AnnotationLibrary annotationLibrary = new AnnotationLibrary(
-            "com/kbn/excel/keyword/**.class");
+    public final Object ROBOT_LIBRARY_LISTENER = this;
+    private static final String KEYWORD_PATTERN = "com/kbn/excel/keyword/**.class";
+    private final RobotJavaLibrary keywordLibrary;
+    private final KeywordDocumentationRepository keywordDocumentation;
     private static final String LIBRARY_DOCUMENTATION = "JyExcelLibrary is a Robot Framework test library for handling excel sheets using Jython.\n"+
-            "It supports both .xlsx and .xls formats. This cannot be used with python.\n";
+            "It supports both .xlsx and .xls formats. This cannot be used with python.\n\n" +
+            "The library has global scope: the opened excel files, the active file and sheet and the date format are " +
+            "shared by every caller in the JVM. Parallel callers should keep their files apart with aliases, or run " +
+            "with -Djyexcel.state.perThread=true, see Switch Excel.\n";
 
     public JyExcelLibrary() {
         this(Collections.<String> emptyList());
@@ -45,44 +55,78 @@ public class JyExcelLibrary implements KeywordDocumentationRepository, RobotJava
         });
     }
 
+    /**
+     * Uses the keyword index generated at compile time, which saves scanning the classpath on import. Extra keyword
+     * patterns, or a build without the generated index, fall back to scanning for the annotated keyword classes.
+     */
     protected JyExcelLibrary(Collection<String> keywordPatterns) {
-        addKeywordPatterns(keywordPatterns);
+        KeywordIndex keywordIndex = keywordPatterns.isEmpty() ? KeywordIndex.load() : null;
+        if (keywordIndex != null) {
+            keywordLibrary = keywordIndex;
+            keywordDocumentation = keywordIndex;
+        } else {
+            AnnotationLibrary annotationLibrary = new AnnotationLibrary(KEYWORD_PATTERN);
+            for (String pattern : keywordPatterns) {
+                annotationLibrary.addKeywordPattern(pattern);
+            }
+            keywordLibrary = annotationLibrary;
+            keywordDocumentation = annotationLibrary;
+        }
         instance = this;
     }
 
-    private void addKeywordPatterns(Collection<String> keywordPatterns) {
-        for (String pattern : keywordPatterns) {
-            annotationLibrary.addKeywordPattern(pattern);
+
+    public Object runKeyword(String keywordName, Object[] args) {
+        KeywordMetrics metrics = KeywordMetrics.getInstance();
+        if (!metrics.isEnabled()) {
+            return keywordLibrary.runKeyword(keywordName, toStrings(args));
+        }
+
+        long allocatedBytes = metrics.getAllocatedBytes();
+        long start = System.nanoTime();
+        try {
+            return keywordLibrary.runKeyword(keywordName, toStrings(args));
+        } finally {
+            metrics.recordKeyword(keywordName, System.nanoTime() - start,
+                    metrics.getAllocatedBytes() - allocatedBytes);
         }
     }
 
 
-    public Object runKeyword(String keywordName, Object[] args) {
-        return annotationLibrary.runKeyword(keywordName, toStrings(args));
+    /**
+     * Called by Robot Framework when the library goes out of scope, as the library is its own listener. Writes the
+     * keyword metrics into their dump file, if one is set.
+     */
+    public void close() {
+        try {
+            KeywordMetrics.getInstance().dump();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
 
     public String[] getKeywordArguments(String keywordName) {
-        return annotationLibrary.getKeywordArguments(keywordName);
+        return keywordDocumentation.getKeywordArguments(keywordName);
     }
 
 
     public String getKeywordDocumentation(String keywordName) {
         if (keywordName.equals("__intro__"))
             return LIBRARY_DOCUMENTATION;
-        return annotationLibrary.getKeywordDocumentation(keywordName);
+        return keywordDocumentation.getKeywordDocumentation(keywordName);
     }
 
 
     public String[] getKeywordNames() {
-        return annotationLibrary.getKeywordNames();
+        return keywordLibrary.getKeywordNames();
     }
 
 
     private Object[] toStrings(Object[] args) {
         Object[] newArgs = new Object[args.length];
         for (int i = 0; i < newArgs.length; i++) {
-            if (args[i].getClass().isArray()) {
+            if (args[i].getClass().isArray() || args[i] instanceof Collection || args[i] instanceof Map) {
                 newArgs[i] = args[i];
             } else {
                 newArgs[i] = args[i].toString();
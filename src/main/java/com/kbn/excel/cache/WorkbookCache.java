@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.cache;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Process wide cache of parsed workbooks which are only read. Entries are keyed by the canonical path of the file
+ * and are only reused while its size and last modified time are unchanged. The least recently used entries are
+ * evicted once the entry or byte budget is exceeded; the byte budget is measured in file sizes.
+ * <p>
+ * The cache is disabled until {@link #enable(int, long)} is called; while disabled every lookup parses the file.
+ * Cached workbooks are parsed from a stream which is closed right away, so they hold no file handles and can be
+ * evicted while a keyword session still uses them.
+ * <p>
+ * The cache is shared by all threads. Lookups of cached workbooks only take the read lock, so parallel readers don't
+ * serialise on it. A missing workbook is parsed under a lock striped by its path: threads asking for the same file
+ * wait for one parse, while different files are parsed in parallel.
+ */
+public class WorkbookCache {
+
+    private static final WorkbookCache INSTANCE = new WorkbookCache();
+    private static final int LOAD_STRIPES = 16;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock[] loadLocks = new Lock[LOAD_STRIPES];
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final AtomicLong accessClock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private volatile boolean enabled;
+    private int maxEntries;
+    private long maxBytes;
+    private long totalBytes;
+
+    private WorkbookCache() {
+        for (int i = 0; i < LOAD_STRIPES; i++) {
+            loadLocks[i] = new ReentrantLock();
+        }
+    }
+
+    public static WorkbookCache getInstance() {
+        return INSTANCE;
+    }
+
+    public void enable(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("The workbook cache needs room for at least one entry and one byte.");
+        }
+        lock.writeLock().lock();
+        try {
+            this.enabled = true;
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            evict();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void disable() {
+        lock.writeLock().lock();
+        try {
+            enabled = false;
+            entries.clear();
+            totalBytes = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Workbook getWorkbook(String excelFilePath) throws IOException, InvalidFormatException {
+        File file = new File(excelFilePath).getCanonicalFile();
+        if (!enabled) {
+            return load(file);
+        }
+
+        String key = file.getPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Workbook workbook = lookup(key, size, lastModified);
+        if (workbook != null) {
+            return workbook;
+        }
+
+        Lock loadLock = loadLocks[(key.hashCode() & Integer.MAX_VALUE) % LOAD_STRIPES];
+        loadLock.lock();
+        try {
+            workbook = lookup(key, size, lastModified);
+            if (workbook != null) {
+                return workbook;
+            }
+
+            misses.incrementAndGet();
+            workbook = load(file);
+            lock.writeLock().lock();
+            try {
+                if (enabled) {
+                    Entry replaced = entries.put(key, new Entry(workbook, size, lastModified,
+                            accessClock.incrementAndGet()));
+                    if (replaced != null) {
+                        totalBytes -= replaced.size;
+                    }
+                    totalBytes += size;
+                    evict();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            return workbook;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    public Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            statistics.put("hits", hits.get());
+            statistics.put("misses", misses.get());
+            statistics.put("evictions", evictions.get());
+            statistics.put("entries", (long) entries.size());
+            statistics.put("bytes", totalBytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return statistics;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Returns the cached workbook if it is still current, marking it as the most recently used one.
+     */
+    private Workbook lookup(String key, long size, long lastModified) {
+        lock.readLock().lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+                return null;
+            }
+            entry.lastAccess = accessClock.incrementAndGet();
+            hits.incrementAndGet();
+            return entry.workbook;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drops the least recently used entries until the cache is within its budget. Called with the write lock held.
+     */
+    private void evict() {
+        while (!entries.isEmpty() && (entries.size() > maxEntries || totalBytes > maxBytes)) {
+            Map.Entry<String, Entry> eldest = null;
+            for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                if (eldest == null || candidate.getValue().lastAccess < eldest.getValue().lastAccess) {
+                    eldest = candidate;
+                }
+            }
+            entries.remove(eldest.getKey());
+            totalBytes -= eldest.getValue().size;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static Workbook load(File file) throws IOException, InvalidFormatException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
+            return WorkbookFactory.create(inputStream);
+        }
+    }
+
+    private static class Entry {
+        final Workbook workbook;
+        final long size;
+        final long lastModified;
+        volatile long lastAccess;
+
+        Entry(Workbook workbook, long size, long lastModified, long lastAccess) {
+            this.workbook = workbook;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.index;
+
+/**
+ * One keyword of the generated keyword table: the public method of the keyword class it is implemented by, its
+ * documentation and argument names, and the parameter types of each of its overloads. The first overload is the
+ * method annotated with {@code @RobotKeyword}, the others carry {@code @RobotKeywordOverload}.
+ */
+public class KeywordDefinition {
+
+    private final String className;
+    private final String name;
+    private final String documentation;
+    private final String[] argumentNames;
+    private final String[][] overloads;
+
+    public KeywordDefinition(String className, String name, String documentation, String[] argumentNames,
+                             String[]... overloads) {
+        this.className = className;
+        this.name = name;
+        this.documentation = documentation;
+        this.argumentNames = argumentNames;
+        this.overloads = overloads;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDocumentation() {
+        return documentation;
+    }
+
+    public String[] getArgumentNames() {
+        return argumentNames;
+    }
+
+    /**
+     * Returns the binary names of the parameter types of each overload, e.g. {@code int} or {@code java.util.List}.
+     */
+    public String[][] getOverloads() {
+        return overloads;
+    }
+}
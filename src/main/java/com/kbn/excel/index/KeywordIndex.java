@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.index;
+
+import org.robotframework.javalib.library.KeywordDocumentationRepository;
+import org.robotframework.javalib.library.RobotJavaLibrary;
+import org.robotframework.javalib.reflection.ArgumentConverter;
+import org.robotframework.javalib.reflection.ArgumentGrouper;
+import org.robotframework.javalib.util.KeywordNameNormalizer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the keywords listed in the generated keyword table without scanning the classpath. Each keyword class is
+ * instantiated once and every keyword method is bound to its instance as a method handle when the index is built.
+ * <p>
+ * Keyword names, overload selection and argument conversion follow javalib's {@code AnnotationLibrary}: names are
+ * matched case, space and underscore insensitively, an overload is chosen by its number of arguments, and the string
+ * arguments are converted by javalib's own {@link ArgumentConverter}.
+ */
+public class KeywordIndex implements RobotJavaLibrary, KeywordDocumentationRepository {
+
+    private static final String TABLE_CLASS = "com.kbn.excel.index.GeneratedKeywordTable";
+    private static final Map<String, Class<?>> PRIMITIVE_TYPES = new HashMap<>();
+
+    static {
+        for (Class<?> type : new Class<?>[]{boolean.class, byte.class, char.class, short.class, int.class, long.class,
+                float.class, double.class}) {
+            PRIMITIVE_TYPES.put(type.getName(), type);
+        }
+    }
+
+    private final KeywordNameNormalizer normalizer = new KeywordNameNormalizer();
+    private final Map<String, Keyword> keywords = new HashMap<>();
+    private final String[] keywordNames;
+
+    public KeywordIndex(KeywordDefinition[] definitions) {
+        ClassLoader classLoader = KeywordIndex.class.getClassLoader();
+        Map<String, Object> keywordBeans = new HashMap<>();
+        keywordNames = new String[definitions.length];
+        try {
+            for (int i = 0; i < definitions.length; i++) {
+                KeywordDefinition definition = definitions[i];
+                Object keywordBean = keywordBeans.get(definition.getClassName());
+                if (keywordBean == null) {
+                    keywordBean = Class.forName(definition.getClassName(), true, classLoader)
+                            .getDeclaredConstructor().newInstance();
+                    keywordBeans.put(definition.getClassName(), keywordBean);
+                }
+
+                String[][] overloads = definition.getOverloads();
+                Invoker[] invokers = new Invoker[overloads.length];
+                for (int j = 0; j < overloads.length; j++) {
+                    invokers[j] = new Invoker(keywordBean, definition.getName(), resolve(overloads[j], classLoader));
+                }
+                keywords.put(normalizer.normalize(definition.getName()), new Keyword(definition, invokers));
+                keywordNames[i] = definition.getName();
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The generated keyword table does not match the keyword classes.", e);
+        }
+    }
+
+    /**
+     * Returns the index of the keyword table generated at compile time, or null when the table was not generated,
+     * e.g. when the sources were compiled without the annotation processor.
+     */
+    public static KeywordIndex load() {
+        KeywordTable keywordTable;
+        try {
+            keywordTable = (KeywordTable) Class.forName(TABLE_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create the generated keyword table.", e);
+        }
+        return new KeywordIndex(keywordTable.getKeywords());
+    }
+
+    @Override
+    public Object runKeyword(String keywordName, Object[] args) {
+        Keyword keyword = getKeyword(keywordName);
+        try {
+            return keyword.select(args).invoke(args);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    @Override
+    public String[] getKeywordNames() {
+        return keywordNames.clone();
+    }
+
+    @Override
+    public String[] getKeywordArguments(String keywordName) {
+        return getKeyword(keywordName).definition.getArgumentNames();
+    }
+
+    @Override
+    public String getKeywordDocumentation(String keywordName) {
+        return getKeyword(keywordName).definition.getDocumentation();
+    }
+
+    private Keyword getKeyword(String keywordName) {
+        Keyword keyword = keywords.get(normalizer.normalize(keywordName));
+        if (keyword == null) {
+            throw new IllegalArgumentException("No keyword with name '" + keywordName + "' found.");
+        }
+        return keyword;
+    }
+
+    private static Class<?>[] resolve(String[] typeNames, ClassLoader classLoader) throws ClassNotFoundException {
+        Class<?>[] types = new Class<?>[typeNames.length];
+        for (int i = 0; i < typeNames.length; i++) {
+            types[i] = resolve(typeNames[i], classLoader);
+        }
+        return types;
+    }
+
+    private static Class<?> resolve(String typeName, ClassLoader classLoader) throws ClassNotFoundException {
+        if (typeName.endsWith("[]")) {
+            Class<?> componentType = resolve(typeName.substring(0, typeName.length() - 2), classLoader);
+            return Array.newInstance(componentType, 0).getClass();
+        }
+        Class<?> primitiveType = PRIMITIVE_TYPES.get(typeName);
+        return primitiveType != null ? primitiveType : Class.forName(typeName, false, classLoader);
+    }
+
+    private static class Keyword {
+        final KeywordDefinition definition;
+        final Invoker[] invokers;
+
+        Keyword(KeywordDefinition definition, Invoker[] invokers) {
+            this.definition = definition;
+            this.invokers = invokers;
+        }
+
+        /**
+         * Picks the overload taking exactly the given number of arguments, or the keyword method itself.
+         */
+        Invoker select(Object[] args) {
+            int argumentCount = args == null ? 0 : args.length;
+            for (int i = 1; i < invokers.length; i++) {
+                if (invokers[i].parameterCount == argumentCount) {
+                    return invokers[i];
+                }
+            }
+            return invokers[0];
+        }
+    }
+
+    private static class Invoker {
+        final int parameterCount;
+        final ArgumentGrouper argumentGrouper;
+        final ArgumentConverter argumentConverter;
+        final MethodHandle methodHandle;
+
+        Invoker(Object keywordBean, String methodName, Class<?>[] parameterTypes)
+                throws NoSuchMethodException, IllegalAccessException {
+            parameterCount = parameterTypes.length;
+            argumentGrouper = new ArgumentGrouper(parameterTypes);
+            argumentConverter = new ArgumentConverter(parameterTypes);
+            methodHandle = MethodHandles.publicLookup()
+                    .unreflect(keywordBean.getClass().getMethod(methodName, parameterTypes))
+                    .bindTo(keywordBean)
+                    .asSpreader(Object[].class, parameterCount)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        Object invoke(Object[] args) throws Throwable {
+            Object[] arguments = argumentConverter.convertArguments(argumentGrouper.groupArguments(args));
+            return (Object) methodHandle.invokeExact(arguments);
+        }
+    }
+}
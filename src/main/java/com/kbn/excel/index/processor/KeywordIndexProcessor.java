@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.index.processor;
+
+import org.robotframework.javalib.annotation.ArgumentNames;
+import org.robotframework.javalib.annotation.RobotKeyword;
+import org.robotframework.javalib.annotation.RobotKeywordOverload;
+import org.robotframework.javalib.annotation.RobotKeywords;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes the keywords of the {@code @RobotKeywords} classes into {@code com.kbn.excel.index.GeneratedKeywordTable},
+ * so that the library does not scan the classpath and reflect over the annotations when it is imported.
+ * <p>
+ * Like javalib, a keyword is named after its public method; the method annotated with {@code @RobotKeyword} gives the
+ * documentation and the argument names, the methods of the same name annotated with {@code @RobotKeywordOverload}
+ * add overloads. Only the methods declared by the keyword classes themselves are indexed.
+ */
+@SupportedAnnotationTypes("org.robotframework.javalib.annotation.RobotKeywords")
+public class KeywordIndexProcessor extends AbstractProcessor {
+
+    private static final String TABLE_PACKAGE = "com.kbn.excel.index";
+    private static final String TABLE_CLASS = "GeneratedKeywordTable";
+
+    private boolean generated;
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<? extends Element> keywordClasses = roundEnv.getElementsAnnotatedWith(RobotKeywords.class);
+        if (generated || keywordClasses.isEmpty()) {
+            return false;
+        }
+
+        Map<String, Keyword> keywords = new LinkedHashMap<>();
+        List<Element> originatingElements = new ArrayList<>();
+        for (Element keywordClass : keywordClasses) {
+            if (keywordClass.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            originatingElements.add(keywordClass);
+            collectKeywords((TypeElement) keywordClass, keywords);
+        }
+
+        for (Keyword keyword : keywords.values()) {
+            if (keyword.keywordMethod == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Keyword '" + keyword.name +
+                        "' has overloads but no method annotated with @RobotKeyword.", keyword.overloads.get(0));
+                return false;
+            }
+        }
+
+        try {
+            writeTable(keywords.values(), originatingElements.toArray(new Element[originatingElements.size()]));
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot write the keyword table: " + e.getMessage());
+        }
+        generated = true;
+        return false;
+    }
+
+    private void collectKeywords(TypeElement keywordClass, Map<String, Keyword> keywords) {
+        String className = processingEnv.getElementUtils().getBinaryName(keywordClass).toString();
+        for (Element member : keywordClass.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            boolean isKeyword = member.getAnnotation(RobotKeyword.class) != null;
+            boolean isOverload = member.getAnnotation(RobotKeywordOverload.class) != null;
+            if (!isKeyword && !isOverload) {
+                continue;
+            }
+
+            ExecutableElement method = (ExecutableElement) member;
+            String name = method.getSimpleName().toString();
+            Keyword keyword = keywords.get(name);
+            if (keyword == null) {
+                keyword = new Keyword(className, name);
+                keywords.put(name, keyword);
+            } else if (!keyword.className.equals(className)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Two keywords with name '" + name + "' found!", method);
+                continue;
+            }
+
+            if (isKeyword && isOverload) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Method definition should not " +
+                        "have both RobotKeyword and RobotKeywordOverload annotations", method);
+            } else if (isKeyword) {
+                keyword.keywordMethod = method;
+            } else {
+                keyword.overloads.add(method);
+            }
+        }
+    }
+
+    private void writeTable(Iterable<Keyword> keywords, Element[] originatingElements) throws IOException {
+        JavaFileObject source = processingEnv.getFiler().createSourceFile(TABLE_PACKAGE + "." + TABLE_CLASS,
+                originatingElements);
+        try (Writer writer = source.openWriter()) {
+            writer.write("package " + TABLE_PACKAGE + ";\n\n");
+            writer.write("/**\n * Generated by " + getClass().getName() + " from the @RobotKeyword annotations, " +
+                    "do not edit.\n */\n");
+            writer.write("public final class " + TABLE_CLASS + " implements KeywordTable {\n\n");
+            writer.write("    @Override\n");
+            writer.write("    public KeywordDefinition[] getKeywords() {\n");
+            writer.write("        return new KeywordDefinition[]{\n");
+            for (Keyword keyword : keywords) {
+                writer.write("                new KeywordDefinition(" + literal(keyword.className) + ", " +
+                        literal(keyword.name) + ",\n");
+                writer.write("                        " + literal(documentation(keyword.keywordMethod)) + ",\n");
+                writer.write("                        " + literal(argumentNames(keyword.keywordMethod)) + ",\n");
+                writer.write("                        " + literal(parameterTypes(keyword.keywordMethod)));
+                for (ExecutableElement overload : keyword.overloads) {
+                    writer.write(",\n                        " + literal(parameterTypes(overload)));
+                }
+                writer.write("),\n");
+            }
+            writer.write("        };\n");
+            writer.write("    }\n");
+            writer.write("}\n");
+        }
+    }
+
+    private static String documentation(ExecutableElement method) {
+        return method.getAnnotation(RobotKeyword.class).value();
+    }
+
+    private static String[] argumentNames(ExecutableElement method) {
+        ArgumentNames argumentNames = method.getAnnotation(ArgumentNames.class);
+        if (argumentNames != null) {
+            return argumentNames.value();
+        }
+        List<? extends VariableElement> parameters = method.getParameters();
+        String[] names = new String[parameters.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = parameters.get(i).getSimpleName().toString();
+        }
+        return names;
+    }
+
+    private String[] parameterTypes(ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+        String[] types = new String[parameters.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = typeName(processingEnv.getTypeUtils().erasure(parameters.get(i).asType()));
+        }
+        return types;
+    }
+
+    /**
+     * Returns the name the type is loaded by at runtime: binary names for classes, so that nested classes resolve,
+     * and a trailing [] per array dimension.
+     */
+    private String typeName(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) {
+            return typeName(((ArrayType) type).getComponentType()) + "[]";
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            TypeElement typeElement = (TypeElement) processingEnv.getTypeUtils().asElement(type);
+            return processingEnv.getElementUtils().getBinaryName(typeElement).toString();
+        }
+        return type.toString();
+    }
+
+    private static String literal(String[] values) {
+        StringBuilder literal = new StringBuilder("new String[]{");
+        for (int i = 0; i < values.length; i++) {
+            literal.append(i == 0 ? "" : ", ").append(literal(values[i]));
+        }
+        return literal.append('}').toString();
+    }
+
+    private static String literal(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    literal.append("\\\"");
+                    break;
+                case '\\':
+                    literal.append("\\\\");
+                    break;
+                case '\n':
+                    literal.append("\\n");
+                    break;
+                case '\r':
+                    literal.append("\\r");
+                    break;
+                case '\t':
+                    literal.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c > 0x7e) {
+                        literal.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        literal.append(c);
+                    }
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    private static class Keyword {
+        final String className;
+        final String name;
+        final List<ExecutableElement> overloads = new ArrayList<>();
+        ExecutableElement keywordMethod;
+
+        Keyword(String className, String name) {
+            this.className = className;
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+
+import java.util.Map;
+
+/**
+ * A formula evaluator which does not evaluate, but answers with the results cached in the formula cells when the file
+ * was saved. Sessions on a workbook shared through the workbook cache use it, as evaluating a formula writes its
+ * result into the cell, which other sessions may be reading at the same time. It never changes the workbook, so one
+ * instance serves every session.
+ */
+class CachedResultEvaluator implements FormulaEvaluator {
+
+    static final CachedResultEvaluator INSTANCE = new CachedResultEvaluator();
+
+    private CachedResultEvaluator() {
+    }
+
+    @Override
+    public CellValue evaluate(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+        CellType cellType = cell.getCellTypeEnum();
+        if (cellType == CellType.FORMULA) {
+            cellType = cell.getCachedFormulaResultTypeEnum();
+        }
+        switch (cellType) {
+            case NUMERIC:
+                return new CellValue(cell.getNumericCellValue());
+            case STRING:
+                return new CellValue(cell.getStringCellValue());
+            case BOOLEAN:
+                return CellValue.valueOf(cell.getBooleanCellValue());
+            case ERROR:
+                return CellValue.getError(cell.getErrorCellValue());
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public CellType evaluateFormulaCellEnum(Cell cell) {
+        if (cell == null || cell.getCellTypeEnum() != CellType.FORMULA) {
+            return CellType._NONE;
+        }
+        return cell.getCachedFormulaResultTypeEnum();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public int evaluateFormulaCell(Cell cell) {
+        return evaluateFormulaCellEnum(cell).getCode();
+    }
+
+    @Override
+    public Cell evaluateInCell(Cell cell) {
+        throw new IllegalStateException("The formulas of a shared read only workbook cannot be evaluated in place.");
+    }
+
+    @Override
+    public void evaluateAll() {
+        throw new IllegalStateException("The formulas of a shared read only workbook cannot be evaluated in place.");
+    }
+
+    @Override
+    public void clearAllCachedResultValues() {
+    }
+
+    @Override
+    public void notifySetFormula(Cell cell) {
+    }
+
+    @Override
+    public void notifyDeleteCell(Cell cell) {
+    }
+
+    @Override
+    public void notifyUpdateCell(Cell cell) {
+    }
+
+    @Override
+    public void setupReferencedWorkbooks(Map<String, FormulaEvaluator> workbooks) {
+    }
+
+    @Override
+    public void setIgnoreMissingWorkbooks(boolean ignore) {
+    }
+
+    @Override
+    public void setDebugEvaluationOutputForNextEval(boolean value) {
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import com.kbn.excel.streaming.StreamingWorkbookReader;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Pattern;
+
+/**
+ * Searches the cells of several sheets for a regular expression, one task per sheet. The sheets of a streaming read
+ * only workbook are parsed in parallel on fork join tasks, sharing the compiled pattern. The sheets of a loaded
+ * workbook are searched one after the other on the calling thread with the session's formatter and evaluator:
+ * evaluating a formula writes its result into the cell and may read cells of any sheet, so formulas of one workbook
+ * must not be evaluated concurrently.
+ * <p>
+ * Matches are returned in sheet, row and column order. With a limit every task stops after that many matches, and the
+ * tasks still running are cancelled as soon as the sheets before them hold enough matches.
+ */
+class CellSearch {
+
+    private static final ForkJoinPool SEARCH_POOL = new ForkJoinPool();
+
+    private final Pattern pattern;
+    private final int maxMatches;
+    private volatile boolean complete;
+
+    CellSearch(String regex, int maxMatches) {
+        this.pattern = Pattern.compile(regex);
+        this.maxMatches = maxMatches;
+    }
+
+    /**
+     * Searches the given sheets of the session's workbook on the calling thread.
+     */
+    List<Map<String, Object>> find(ExcelSession session, List<Sheet> sheets) {
+        List<RecursiveTask<List<Map<String, Object>>>> tasks = new ArrayList<>(sheets.size());
+        for (Sheet sheet : sheets) {
+            tasks.add(new SheetTask(sheet, session.dataFormatter, session.getFormulaEvaluator()));
+        }
+        return runSequential(tasks);
+    }
+
+    /**
+     * Searches the given sheets of a streaming read only workbook, parsing each sheet on its own task.
+     */
+    List<Map<String, Object>> find(StreamingWorkbookReader reader, List<String> sheetNames) {
+        List<RecursiveTask<List<Map<String, Object>>>> tasks = new ArrayList<>(sheetNames.size());
+        for (String sheetName : sheetNames) {
+            tasks.add(new StreamingSheetTask(reader, sheetName));
+        }
+        return tasks.size() > 1 ? runParallel(tasks) : runSequential(tasks);
+    }
+
+    private List<Map<String, Object>> runSequential(List<RecursiveTask<List<Map<String, Object>>>> tasks) {
+        List<Map<String, Object>> matches = new ArrayList<>();
+        for (RecursiveTask<List<Map<String, Object>>> task : tasks) {
+            matches.addAll(task.invoke());
+            if (isLimitReached(matches)) {
+                break;
+            }
+        }
+        return limit(matches);
+    }
+
+    private List<Map<String, Object>> runParallel(List<RecursiveTask<List<Map<String, Object>>>> tasks) {
+        for (RecursiveTask<List<Map<String, Object>>> task : tasks) {
+            SEARCH_POOL.execute(task);
+        }
+
+        List<Map<String, Object>> matches = new ArrayList<>();
+        try {
+            for (RecursiveTask<List<Map<String, Object>>> task : tasks) {
+                if (complete) {
+                    task.cancel(false);
+                    continue;
+                }
+                matches.addAll(task.join());
+                complete = isLimitReached(matches);
+            }
+        } finally {
+            complete = true;
+        }
+        return limit(matches);
+    }
+
+    private boolean isLimitReached(List<?> matches) {
+        return maxMatches > 0 && matches.size() >= maxMatches;
+    }
+
+    private List<Map<String, Object>> limit(List<Map<String, Object>> matches) {
+        return maxMatches > 0 && matches.size() > maxMatches ?
+                new ArrayList<>(matches.subList(0, maxMatches)) : matches;
+    }
+
+    /**
+     * Adds the cell to the matches of its sheet if its value matches, and returns whether the sheet should be searched
+     * any further.
+     */
+    private boolean match(String sheetName, int rowNumber, int colNumber, String value,
+                          List<Map<String, Object>> matches) {
+        if (!value.isEmpty() && pattern.matcher(value).find()) {
+            Map<String, Object> match = new LinkedHashMap<>();
+            match.put("sheet", sheetName);
+            match.put("row", rowNumber);
+            match.put("column", colNumber);
+            match.put("value", value);
+            matches.add(match);
+        }
+        return !complete && !isLimitReached(matches);
+    }
+
+    private class SheetTask extends RecursiveTask<List<Map<String, Object>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Sheet sheet;
+        private final DataFormatter formatter;
+        private final FormulaEvaluator evaluator;
+
+        SheetTask(Sheet sheet, DataFormatter formatter, FormulaEvaluator evaluator) {
+            this.sheet = sheet;
+            this.formatter = formatter;
+            this.evaluator = evaluator;
+        }
+
+        @Override
+        protected List<Map<String, Object>> compute() {
+            String sheetName = sheet.getSheetName();
+
+            List<Map<String, Object>> matches = new ArrayList<>();
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    if (!match(sheetName, row.getRowNum(), cell.getColumnIndex(),
+                            formatter.formatCellValue(cell, evaluator), matches)) {
+                        return matches;
+                    }
+                }
+            }
+            return matches;
+        }
+    }
+
+    private class StreamingSheetTask extends RecursiveTask<List<Map<String, Object>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final StreamingWorkbookReader reader;
+        private final String sheetName;
+
+        StreamingSheetTask(StreamingWorkbookReader reader, String sheetName) {
+            this.reader = reader;
+            this.sheetName = sheetName;
+        }
+
+        @Override
+        protected List<Map<String, Object>> compute() {
+            final List<Map<String, Object>> matches = new ArrayList<>();
+            reader.scanSheet(sheetName, new StreamingWorkbookReader.CellVisitor() {
+                @Override
+                public boolean visitCell(int rowNumber, int colNumber, String value) {
+                    return match(sheetName, rowNumber, colNumber, value, matches);
+                }
+            });
+            return matches;
+        }
+    }
+}
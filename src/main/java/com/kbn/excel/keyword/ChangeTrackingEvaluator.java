@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+
+import java.util.Map;
+
+/**
+ * Evaluates formulas with the given evaluator and records a sheet as changed in the session when the result written
+ * into one of its formula cells differs from the result cached there before, so that an incremental save writes the
+ * sheet again instead of keeping the stale result. This happens when a cell the formula refers to was changed, which
+ * may be on another sheet. Formulas whose result is unchanged, like those of a workbook which is only read, leave
+ * their sheet untouched.
+ */
+class ChangeTrackingEvaluator implements FormulaEvaluator {
+
+    private final FormulaEvaluator evaluator;
+    private final ExcelSession session;
+
+    ChangeTrackingEvaluator(FormulaEvaluator evaluator, ExcelSession session) {
+        this.evaluator = evaluator;
+        this.session = session;
+    }
+
+    @Override
+    public CellType evaluateFormulaCellEnum(Cell cell) {
+        if (cell == null || cell.getCellTypeEnum() != CellType.FORMULA) {
+            return evaluator.evaluateFormulaCellEnum(cell);
+        }
+        Object cachedResult = getCachedResult(cell);
+        CellType cellType = evaluator.evaluateFormulaCellEnum(cell);
+        if (cachedResult == null || !cachedResult.equals(getCachedResult(cell))) {
+            session.sheetChanged(cell.getSheet());
+        }
+        return cellType;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public int evaluateFormulaCell(Cell cell) {
+        return evaluateFormulaCellEnum(cell).getCode();
+    }
+
+    @Override
+    public Cell evaluateInCell(Cell cell) {
+        boolean formula = cell != null && cell.getCellTypeEnum() == CellType.FORMULA;
+        Cell evaluatedCell = evaluator.evaluateInCell(cell);
+        if (formula) {
+            // The formula is replaced by its result.
+            session.sheetChanged(evaluatedCell.getSheet());
+        }
+        return evaluatedCell;
+    }
+
+    @Override
+    public void evaluateAll() {
+        for (Sheet evaluatedSheet : session.wb) {
+            for (Row row : evaluatedSheet) {
+                for (Cell cell : row) {
+                    if (cell.getCellTypeEnum() == CellType.FORMULA) {
+                        evaluateFormulaCellEnum(cell);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the result cached in the given formula cell, or null when the cell holds none.
+     */
+    private static Object getCachedResult(Cell cell) {
+        if (cell instanceof XSSFCell && !((XSSFCell) cell).getCTCell().isSetV()) {
+            return null;
+        }
+        switch (cell.getCachedFormulaResultTypeEnum()) {
+            case NUMERIC:
+                return cell.getNumericCellValue();
+            case STRING:
+                return cell.getStringCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case ERROR:
+                return cell.getErrorCellValue();
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public CellValue evaluate(Cell cell) {
+        return evaluator.evaluate(cell);
+    }
+
+    @Override
+    public void clearAllCachedResultValues() {
+        evaluator.clearAllCachedResultValues();
+    }
+
+    @Override
+    public void notifySetFormula(Cell cell) {
+        evaluator.notifySetFormula(cell);
+    }
+
+    @Override
+    public void notifyDeleteCell(Cell cell) {
+        evaluator.notifyDeleteCell(cell);
+    }
+
+    @Override
+    public void notifyUpdateCell(Cell cell) {
+        evaluator.notifyUpdateCell(cell);
+    }
+
+    @Override
+    public void setupReferencedWorkbooks(Map<String, FormulaEvaluator> workbooks) {
+        evaluator.setupReferencedWorkbooks(workbooks);
+    }
+
+    @Override
+    public void setIgnoreMissingWorkbooks(boolean ignore) {
+        evaluator.setIgnoreMissingWorkbooks(ignore);
+    }
+
+    @Override
+    public void setDebugEvaluationOutputForNextEval(boolean value) {
+        evaluator.setDebugEvaluationOutputForNextEval(value);
+    }
+}
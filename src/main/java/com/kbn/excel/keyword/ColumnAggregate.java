@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import com.kbn.excel.streaming.StreamingWorkbookReader;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.Arrays;
+
+/**
+ * The count, sum, minimum, maximum and optionally the number of distinct values of the numbers of one column,
+ * computed in a single pass over primitive values. Cells are taken like Get Column Numbers takes them: text, booleans,
+ * errors and dates don't count.
+ * <p>
+ * The sum is compensated (Neumaier), so that columns of decimal amounts add up without drifting.
+ */
+class ColumnAggregate implements StreamingWorkbookReader.NumberVisitor {
+
+    private final DistinctNumbers distinctNumbers;
+    private int count;
+    private double sum;
+    private double compensation;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    ColumnAggregate(boolean countDistinct) {
+        this.distinctNumbers = countDistinct ? new DistinctNumbers() : null;
+    }
+
+    /**
+     * Adds the numbers of the given column of the sheet, walking only the rows which exist. Formulas are evaluated
+     * with the given evaluator, or taken with their cached result when it is null.
+     */
+    void addColumn(Sheet sheet, int column, FormulaEvaluator evaluator) {
+        for (Row row : sheet) {
+            Cell cell = row.getCell(column);
+            if (cell == null) {
+                continue;
+            }
+            CellType cellType = cell.getCellTypeEnum();
+            if (cellType == CellType.FORMULA) {
+                cellType = evaluator == null ? cell.getCachedFormulaResultTypeEnum() :
+                        evaluator.evaluateFormulaCellEnum(cell);
+            }
+            if (cellType == CellType.NUMERIC && !DateUtil.isCellDateFormatted(cell)) {
+                visitNumber(cell.getNumericCellValue());
+            }
+        }
+    }
+
+    @Override
+    public void visitNumber(double value) {
+        count++;
+        double total = sum + value;
+        if (Math.abs(sum) >= Math.abs(value)) {
+            compensation += (sum - total) + value;
+        } else {
+            compensation += (value - total) + sum;
+        }
+        sum = total;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (distinctNumbers != null) {
+            distinctNumbers.add(value);
+        }
+    }
+
+    Number getSum() {
+        return RawValueReader.toNumber(sum + compensation);
+    }
+
+    Number getMin() {
+        return count == 0 ? null : RawValueReader.toNumber(min);
+    }
+
+    Number getMax() {
+        return count == 0 ? null : RawValueReader.toNumber(max);
+    }
+
+    Number getAverage() {
+        return count == 0 ? null : RawValueReader.toNumber((sum + compensation) / count);
+    }
+
+    int getDistinctCount() {
+        return distinctNumbers.size;
+    }
+
+    /**
+     * An open addressing set of the bit patterns of doubles, so the distinct numbers of a column are counted without
+     * boxing them.
+     */
+    private static class DistinctNumbers {
+
+        private static final long FREE = 0x7ff8dead0000beefL;
+
+        private long[] slots = newSlots(64);
+        private int size;
+        private boolean containsFree;
+
+        void add(double value) {
+            // -0.0 and 0.0 are the same number in a cell.
+            long bits = Double.doubleToLongBits(value == 0 ? 0d : value);
+            if (bits == FREE) {
+                if (!containsFree) {
+                    containsFree = true;
+                    size++;
+                }
+                return;
+            }
+            if (insert(slots, bits)) {
+                size++;
+                if (size * 2 > slots.length) {
+                    long[] grown = newSlots(slots.length * 2);
+                    for (long slot : slots) {
+                        if (slot != FREE) {
+                            insert(grown, slot);
+                        }
+                    }
+                    slots = grown;
+                }
+            }
+        }
+
+        private static boolean insert(long[] slots, long bits) {
+            int mask = slots.length - 1;
+            long hash = bits * 0x9E3779B97F4A7C15L;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (slots[slot] != FREE) {
+                if (slots[slot] == bits) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = bits;
+            return true;
+        }
+
+        private static long[] newSlots(int capacity) {
+            long[] slots = new long[capacity];
+            Arrays.fill(slots, FREE);
+            return slots;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the formatted values of one column of a sheet to the number of the first row holding them. The index is
+ * marked stale when the column is written and rebuilt on the next lookup.
+ */
+class ColumnIndex {
+
+    final int column;
+    private Map<String, Integer> rowsByKey;
+
+    ColumnIndex(int column) {
+        this.column = column;
+    }
+
+    void invalidate() {
+        rowsByKey = null;
+    }
+
+    Integer getRowNumber(Sheet sheet, String key, DataFormatter dataFormatter, FormulaEvaluator formulaEvaluator) {
+        if (rowsByKey == null) {
+            build(sheet, dataFormatter, formulaEvaluator);
+        }
+        return rowsByKey.get(key);
+    }
+
+    void build(Sheet sheet, DataFormatter dataFormatter, FormulaEvaluator formulaEvaluator) {
+        Map<String, Integer> index = new HashMap<>(Math.max(sheet.getPhysicalNumberOfRows() * 4 / 3, 16));
+        for (Row row : sheet) {
+            Cell cell = row.getCell(column);
+            if (cell == null) {
+                continue;
+            }
+            String key = dataFormatter.formatCellValue(cell, formulaEvaluator);
+            if (!key.isEmpty() && !index.containsKey(key)) {
+                index.put(key, row.getRowNum());
+            }
+        }
+        rowsByKey = index;
+    }
+}
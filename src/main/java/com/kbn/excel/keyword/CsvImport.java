@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes the records of a CSV file into a sheet as they are read. The type of each column is inferred from the first
+ * {@value #SAMPLE_SIZE} records after the header: a column whose sampled values all are numbers, booleans or dates in
+ * the date format is written as such, every other column as strings. Values which don't fit the type of their
+ * column, like the header, are written as strings, and values starting with = are never turned into formulas.
+ * <p>
+ * Only the sampled records are buffered, so in a streaming write workbook the heap used stays bounded whatever the
+ * size of the file.
+ */
+class CsvImport {
+
+    static final int SAMPLE_SIZE = 1000;
+
+    private enum ColumnType {
+        NUMERIC, BOOLEAN, DATE, STRING
+    }
+
+    private final ExcelSession session;
+    private final Sheet sheet;
+    private final SimpleDateFormat dateFormatter;
+    private final String dateFormat;
+    private ColumnType[] columnTypes;
+    private CellStyle dateStyle;
+    private int lastColumn = -1;
+
+    CsvImport(ExcelSession session, Sheet sheet, SimpleDateFormat dateFormatter, String dateFormat) {
+        this.session = session;
+        this.sheet = sheet;
+        this.dateFormatter = dateFormatter;
+        this.dateFormat = dateFormat;
+    }
+
+    /**
+     * Writes every record of the reader into the rows starting at the given one and returns the number of records.
+     */
+    int importRecords(CsvReader csvReader, int startRow) throws IOException {
+        List<List<String>> sample = new ArrayList<>();
+        List<String> record;
+        while (sample.size() <= SAMPLE_SIZE && (record = csvReader.readRecord()) != null) {
+            sample.add(record);
+        }
+        inferColumnTypes(sample);
+
+        int rowNumber = startRow;
+        try {
+            for (List<String> sampled : sample) {
+                writeRecord(rowNumber++, sampled);
+            }
+            sample.clear();
+            while ((record = csvReader.readRecord()) != null) {
+                writeRecord(rowNumber++, record);
+            }
+        } finally {
+            session.columnsChanged(sheet, 0, lastColumn);
+            session.cellsChanged();
+        }
+        return rowNumber - startRow;
+    }
+
+    private void inferColumnTypes(List<List<String>> sample) {
+        int width = 0;
+        for (List<String> record : sample) {
+            width = Math.max(width, record.size());
+        }
+
+        List<List<String>> data = sample.size() > 1 ? sample.subList(1, sample.size()) : sample;
+        columnTypes = new ColumnType[width];
+        for (int column = 0; column < width; column++) {
+            columnTypes[column] = inferColumnType(data, column);
+        }
+    }
+
+    private ColumnType inferColumnType(List<List<String>> data, int column) {
+        boolean numeric = true;
+        boolean bool = true;
+        boolean date = true;
+        boolean empty = true;
+        for (List<String> record : data) {
+            String value = column < record.size() ? record.get(column) : "";
+            if (value.isEmpty()) {
+                continue;
+            }
+            empty = false;
+            numeric = numeric && ExcelKeywords.NUMBER_PATTERN.matcher(value).matches();
+            bool = bool && isBoolean(value);
+            date = date && parseDate(value) != null;
+            if (!numeric && !bool && !date) {
+                return ColumnType.STRING;
+            }
+        }
+        if (empty) {
+            return ColumnType.STRING;
+        }
+        return numeric ? ColumnType.NUMERIC : bool ? ColumnType.BOOLEAN : ColumnType.DATE;
+    }
+
+    private void writeRecord(int rowNumber, List<String> record) {
+        Row row = sheet.getRow(rowNumber);
+        if (row == null) {
+            row = sheet.createRow(rowNumber);
+        }
+
+        for (int column = 0; column < record.size(); column++) {
+            String value = record.get(column);
+            Cell cell = row.getCell(column);
+            if (value.isEmpty()) {
+                if (cell != null) {
+                    cell.setCellType(CellType.BLANK);
+                }
+                continue;
+            }
+            if (cell == null) {
+                cell = row.createCell(column);
+            }
+            setCellValue(cell, column < columnTypes.length ? columnTypes[column] : ColumnType.STRING, value);
+        }
+        lastColumn = Math.max(lastColumn, record.size() - 1);
+    }
+
+    private void setCellValue(Cell cell, ColumnType columnType, String value) {
+        Date date;
+        if (columnType == ColumnType.NUMERIC && ExcelKeywords.NUMBER_PATTERN.matcher(value).matches()) {
+            cell.setCellValue(Double.parseDouble(value));
+        } else if (columnType == ColumnType.BOOLEAN && isBoolean(value)) {
+            cell.setCellValue(Boolean.parseBoolean(value));
+        } else if (columnType == ColumnType.DATE && (date = parseDate(value)) != null) {
+            cell.setCellValue(date);
+            if (dateStyle == null) {
+                dateStyle = session.getCellStylePool().getStyle(dateFormat);
+            }
+            cell.setCellStyle(dateStyle);
+        } else {
+            cell.setCellValue(value);
+        }
+    }
+
+    private static boolean isBoolean(String value) {
+        return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false");
+    }
+
+    private Date parseDate(String value) {
+        ParsePosition position = new ParsePosition(0);
+        Date date = dateFormatter.parse(value, position);
+        return position.getIndex() == value.length() ? date : null;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads an RFC 4180 CSV file one record at a time. Quoted values may hold commas, doubled quotes and line breaks;
+ * records may end with CRLF, LF or CR. The file is read as UTF-8 and a leading byte order mark is skipped.
+ */
+class CsvReader implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final StringBuilder value = new StringBuilder();
+    private int next;
+
+    CsvReader(String csvFilePath) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(csvFilePath), StandardCharsets.UTF_8),
+                READ_BUFFER_SIZE);
+        next = reader.read();
+        if (next == '\uFEFF') {
+            next = reader.read();
+        }
+    }
+
+    /**
+     * Returns the values of the next record, or null at the end of the file.
+     */
+    List<String> readRecord() throws IOException {
+        if (next < 0) {
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+        boolean quoted = false;
+        value.setLength(0);
+        while (next >= 0) {
+            int c = next;
+            next = reader.read();
+            if (quoted) {
+                if (c != '"') {
+                    value.append((char) c);
+                } else if (next == '"') {
+                    value.append('"');
+                    next = reader.read();
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && next == '\n') {
+                    next = reader.read();
+                }
+                break;
+            } else {
+                value.append((char) c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The cell edits queued between Begin Excel Batch and Commit Excel Batch. The edits of each sheet are kept in
+ * primitive arrays under a sort key made of their row, column and position in the queue, so that the commit applies
+ * them in one pass over the rows of each sheet, in the order they were queued for the same cell, and notifies the
+ * formula evaluator and the column indexes once.
+ */
+class EditBatch {
+
+    static final byte NUMBER = 0;
+    static final byte STRING = 1;
+    static final byte FORMULA = 2;
+    static final byte BOOLEAN = 3;
+    static final byte DATE = 4;
+    static final byte REMOVE = 5;
+
+    private static final int SEQUENCE_BITS = 29;
+    private static final int COLUMN_BITS = 14;
+    private static final int MAX_ROW = (1 << 20) - 1;
+    private static final int MAX_COLUMN = (1 << COLUMN_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ExcelSession session;
+    private final Map<Sheet, SheetEdits> sheetEdits = new LinkedHashMap<>();
+    private final List<String> dateFormats = new ArrayList<>();
+
+    EditBatch(ExcelSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Queues an edit of the given cell. The value is the text of string, formula and boolean edits and the date of
+     * date edits, which are written with the given date format; the number is used by number edits only.
+     */
+    void queue(Sheet sheet, int rowNumber, int columnNumber, byte type, double number, Object value,
+               String dateFormat) {
+        session.checkWritable();
+        session.checkNotFlushed(sheet, rowNumber);
+        if (rowNumber < 0 || rowNumber > MAX_ROW || columnNumber < 0 || columnNumber > MAX_COLUMN) {
+            throw new IllegalArgumentException("Cell " + rowNumber + ", " + columnNumber + " is outside of the sheet.");
+        }
+
+        SheetEdits edits = sheetEdits.get(sheet);
+        if (edits == null) {
+            edits = new SheetEdits();
+            sheetEdits.put(sheet, edits);
+        }
+        if (type == DATE) {
+            int formatIndex = dateFormats.indexOf(dateFormat);
+            if (formatIndex < 0) {
+                formatIndex = dateFormats.size();
+                dateFormats.add(dateFormat);
+            }
+            // Date edits don't use the number, so it holds the index of their format instead.
+            number = formatIndex;
+        }
+        edits.add(rowNumber, columnNumber, type, number, value);
+    }
+
+    /**
+     * Applies the queued edits, sheet by sheet in the order of the workbook, and returns their number. Edits of sheets
+     * removed in the meantime are dropped.
+     */
+    int commit() {
+        List<Sheet> sheets = new ArrayList<>(sheetEdits.keySet());
+        Collections.sort(sheets, new Comparator<Sheet>() {
+            @Override
+            public int compare(Sheet first, Sheet second) {
+                return Integer.compare(session.wb.getSheetIndex(first), session.wb.getSheetIndex(second));
+            }
+        });
+
+        int applied = 0;
+        Map<String, CellStyle> dateStyles = new HashMap<>();
+        try {
+            for (Sheet sheet : sheets) {
+                if (session.wb.getSheetIndex(sheet) >= 0) {
+                    applied += sheetEdits.get(sheet).apply(sheet, dateStyles);
+                }
+            }
+        } finally {
+            session.cellsChanged();
+        }
+        return applied;
+    }
+
+    private class SheetEdits {
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private byte[] types = new byte[INITIAL_CAPACITY];
+        private double[] numbers = new double[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int count;
+        private int firstColumn = MAX_COLUMN;
+        private int lastColumn = -1;
+
+        void add(int rowNumber, int columnNumber, byte type, double number, Object value) {
+            if (count == keys.length) {
+                if (count == 1 << SEQUENCE_BITS) {
+                    throw new IllegalStateException("Too many edits are queued for one sheet in the excel batch.");
+                }
+                int capacity = Math.min(count * 2, 1 << SEQUENCE_BITS);
+                keys = Arrays.copyOf(keys, capacity);
+                types = Arrays.copyOf(types, capacity);
+                numbers = Arrays.copyOf(numbers, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            keys[count] = ((((long) rowNumber << COLUMN_BITS) | columnNumber) << SEQUENCE_BITS) | count;
+            types[count] = type;
+            numbers[count] = number;
+            values[count] = value;
+            count++;
+            firstColumn = Math.min(firstColumn, columnNumber);
+            lastColumn = Math.max(lastColumn, columnNumber);
+        }
+
+        int apply(Sheet sheet, Map<String, CellStyle> dateStyles) {
+            long[] order = Arrays.copyOf(keys, count);
+            Arrays.sort(order);
+
+            int sequenceMask = (1 << SEQUENCE_BITS) - 1;
+            Row row = null;
+            try {
+                for (long key : order) {
+                    int edit = (int) (key & sequenceMask);
+                    int rowNumber = (int) (key >>> (SEQUENCE_BITS + COLUMN_BITS));
+                    int columnNumber = (int) (key >>> SEQUENCE_BITS) & MAX_COLUMN;
+                    if (row == null || row.getRowNum() != rowNumber) {
+                        row = sheet.getRow(rowNumber);
+                        if (row == null) {
+                            row = sheet.createRow(rowNumber);
+                        }
+                    }
+                    Cell cell = row.getCell(columnNumber);
+                    if (cell == null) {
+                        cell = row.createCell(columnNumber);
+                    }
+                    apply(cell, types[edit], numbers[edit], values[edit], dateStyles);
+                }
+            } finally {
+                session.columnsChanged(sheet, firstColumn, lastColumn);
+            }
+            return count;
+        }
+
+        private void apply(Cell cell, byte type, double number, Object value, Map<String, CellStyle> dateStyles) {
+            switch (type) {
+                case NUMBER:
+                    cell.setCellType(CellType.NUMERIC);
+                    cell.setCellValue(number);
+                    break;
+                case STRING:
+                    cell.setCellType(CellType.STRING);
+                    cell.setCellValue((String) value);
+                    break;
+                case FORMULA:
+                    cell.setCellType(CellType.FORMULA);
+                    cell.setCellFormula((String) value);
+                    break;
+                case BOOLEAN:
+                    cell.setCellType(CellType.BOOLEAN);
+                    cell.setCellValue((String) value);
+                    break;
+                case DATE:
+                    cell.setCellValue((Date) value);
+                    String dateFormat = dateFormats.get((int) number);
+                    CellStyle dateStyle = dateStyles.get(dateFormat);
+                    if (dateStyle == null) {
+                        dateStyle = session.getCellStylePool().getStyle(dateFormat);
+                        dateStyles.put(dateFormat, dateStyle);
+                    }
+                    cell.setCellStyle(dateStyle);
+                    break;
+                default:
+                    cell.setCellType(CellType.BLANK);
+                    cell.setCellValue("");
+                    break;
+            }
+        }
+    }
+}
@@ -17,39 +17,314 @@
 package com.kbn.excel.keyword;
 
 
+import com.kbn.excel.cache.WorkbookCache;
+import com.kbn.excel.metrics.KeywordMetrics;
+import com.kbn.excel.streaming.StreamingWorkbookReader;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.robotframework.javalib.annotation.ArgumentNames;
 import org.robotframework.javalib.annotation.RobotKeyword;
+import org.robotframework.javalib.annotation.RobotKeywordOverload;
 import org.robotframework.javalib.annotation.RobotKeywords;
 
 import java.io.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 
 @RobotKeywords
 public class ExcelKeywords {
 
-    private InputStream fileInputStream;
-    private OutputStream fileOutputStream;
-    private Workbook wb;
-    private Sheet sheet;
-    private String excelFilePath;
+    /**
+     * Keeps a registry of opened files and settings per calling thread instead of one shared by all of them when set
+     * to true, for callers which run keywords in parallel threads of one JVM. By default the opened files, the active
+     * file and sheet and the date format are shared by every thread, as Robot Framework runs a keyword with a timeout
+     * on a thread of its own: with this property set, files opened by such a keyword are not visible to the next one.
+     */
+    public static final String PER_THREAD_STATE_PROPERTY = "jyexcel.state.perThread";
 
+    private final SessionRegistry sharedRegistry;
+    private final ThreadLocal<SessionRegistry> threadRegistries;
 
-    @RobotKeyword("Open the excel file using the given path.\n\n" +
+    private static final ExecutorService SAVE_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("jyexcel-save-"));
+    private static final String DEFAULT_ALIAS = "default";
+    private static final String DEFAULT_DATE_FORMAT = "MM-dd-yyyy";
+    private static final long DEFAULT_SHEET_CACHE_BYTES = 256L * 1024 * 1024;
+    private static final int DEFAULT_MAX_DIFFERENCES = 100;
+    static final Pattern NUMBER_PATTERN = Pattern.compile("[-+]?\\d+(\\.\\d+)?([eE][-+]?\\d+)?");
+
+
+    public ExcelKeywords() {
+        this(Boolean.getBoolean(PER_THREAD_STATE_PROPERTY));
+    }
+
+    ExcelKeywords(boolean perThreadState) {
+        if (perThreadState) {
+            sharedRegistry = null;
+            threadRegistries = new ThreadLocal<SessionRegistry>() {
+                @Override
+                protected SessionRegistry initialValue() {
+                    return new SessionRegistry(DEFAULT_DATE_FORMAT);
+                }
+            };
+        } else {
+            sharedRegistry = new SessionRegistry(DEFAULT_DATE_FORMAT);
+            threadRegistries = null;
+        }
+    }
+
+    @RobotKeyword("Open the excel file using the given path.\n" +
+            "Several files can be kept open at the same time by giving each one an alias, see Switch Excel. " +
+            "Opening a file with an alias which is already in use closes the file opened before with it.\n\n" +
             "Example:\n" +
-            "| Open Excel | C:\\\\demo.xlsx |" +
+            "| Open Excel | C:\\\\demo.xlsx |\n" +
+            "| Open Excel | C:\\\\expected.xlsx | alias=expected |" +
             "\n")
-    @ArgumentNames({"excelFilePath"})
+    @ArgumentNames({"excelFilePath", "alias=default"})
+    public void openExcel(String excelFilePath, String alias) {
+        long start = System.nanoTime();
+        ExcelSession newSession = new ExcelSession(alias, excelFilePath.trim());
+        newSession.openFileToRead();
+        KeywordMetrics.getInstance().recordOpen(newSession.excelFilePath, System.nanoTime() - start);
+        register(newSession);
+    }
+
+    @RobotKeywordOverload
     public void openExcel(String excelFilePath) {
-        this.excelFilePath = excelFilePath.trim();
-        openFileToRead();
+        openExcel(excelFilePath, DEFAULT_ALIAS);
+    }
+
+
+    @RobotKeyword("Opens the excel file using the given path for reading only.\n" +
+            "When the workbook cache is enabled (see Enable Workbook Cache) the parsed workbook is shared with " +
+            "every other read only open of the same, unchanged file, so repeated opens of fixture files are " +
+            "almost free. Formulas of a cached workbook are not evaluated again, their results saved in the file " +
+            "are read instead. Otherwise the file is read in place (memory mapped for .xls) instead of being copied " +
+            "into memory, and it stays open until Close Excel. The write keywords fail on a file opened this way.\n\n" +
+            "Example:\n" +
+            "| Open Excel Read Only | C:\\\\demo.xlsx |\n" +
+            "| Open Excel Read Only | C:\\\\expected.xlsx | alias=expected |" +
+            "\n")
+    @ArgumentNames({"excelFilePath", "alias=default"})
+    public void openExcelReadOnly(String excelFilePath, String alias) throws IOException, InvalidFormatException {
+        long start = System.nanoTime();
+        ExcelSession newSession = new ExcelSession(alias, excelFilePath.trim());
+        WorkbookCache workbookCache = WorkbookCache.getInstance();
+        if (workbookCache.isEnabled()) {
+            newSession.wb = workbookCache.getWorkbook(newSession.excelFilePath);
+            newSession.sheet = newSession.wb.getSheetAt(0);
+            newSession.readOnly = true;
+            newSession.sharedWorkbook = true;
+        } else {
+            newSession.openFileReadOnly();
+        }
+        KeywordMetrics.getInstance().recordOpen(newSession.excelFilePath, System.nanoTime() - start);
+        register(newSession);
+    }
+
+    @RobotKeywordOverload
+    public void openExcelReadOnly(String excelFilePath) throws IOException, InvalidFormatException {
+        openExcelReadOnly(excelFilePath, DEFAULT_ALIAS);
+    }
+
+
+    @RobotKeyword("Enables the process wide cache of workbooks opened with Open Excel Read Only.\n" +
+            "A cached workbook is reused as long as the size and the last modified time of its file are unchanged. " +
+            "When more than maxEntries workbooks or more than maxBytes bytes (measured as file sizes) are cached, " +
+            "the least recently used workbooks are dropped.\n\n" +
+            "Example:\n" +
+            "| Enable Workbook Cache | 20 | 536870912 |" +
+            "\n")
+    @ArgumentNames({"maxEntries", "maxBytes"})
+    public void enableWorkbookCache(int maxEntries, long maxBytes) {
+        WorkbookCache.getInstance().enable(maxEntries, maxBytes);
+    }
+
+
+    @RobotKeyword("Disables the workbook cache and drops every cached workbook.\n\n" +
+            "Example:\n" +
+            "| Disable Workbook Cache |" +
+            "\n")
+    @ArgumentNames({})
+    public void disableWorkbookCache() {
+        WorkbookCache.getInstance().disable();
+    }
+
+
+    @RobotKeyword("Returns the hit, miss and eviction counters of the workbook cache together with the number of " +
+            "cached workbooks and their size in bytes.\n\n" +
+            "Example:\n" +
+            "| ${stats} | Get Workbook Cache Statistics |\n" +
+            "| Should Be True | ${stats['hits']} > 0 |" +
+            "\n")
+    @ArgumentNames({})
+    public Map<String, Long> getWorkbookCacheStatistics() {
+        return WorkbookCache.getInstance().getStatistics();
+    }
+
+
+    @RobotKeyword("Starts recording the number of calls, the latency and the allocated bytes of every keyword of " +
+            "this library, as well as the duration and the file size of each opened and saved excel file.\n" +
+            "The metrics are returned by Get Excel Metrics and published over JMX as " +
+            "com.kbn.excel:type=KeywordMetrics. When a dump file is given the metrics are written into it as JSON " +
+            "when the library is torn down at the end of the run. Metrics can also be enabled when starting the JVM " +
+            "with -Djyexcel.metrics.enabled=true and -Djyexcel.metrics.dumpFile=path.\n\n" +
+            "Example:\n" +
+            "| Enable Excel Metrics |\n" +
+            "| Enable Excel Metrics | ${OUTPUT DIR}/excel-metrics.json |" +
+            "\n")
+    @ArgumentNames({"dumpFile="})
+    public void enableExcelMetrics(String dumpFile) {
+        KeywordMetrics.getInstance().enable(dumpFile);
+    }
+
+    @RobotKeywordOverload
+    public void enableExcelMetrics() {
+        enableExcelMetrics(null);
+    }
+
+
+    @RobotKeyword("Stops recording the excel metrics. The metrics recorded so far are kept.\n\n" +
+            "Example:\n" +
+            "| Disable Excel Metrics |" +
+            "\n")
+    @ArgumentNames({})
+    public void disableExcelMetrics() {
+        KeywordMetrics.getInstance().disable();
+    }
+
+
+    @RobotKeyword("Returns the metrics recorded since Enable Excel Metrics.\n" +
+            "The 'keywords' entry maps each keyword to its calls, p50Micros, p99Micros, maxMicros, totalMicros and " +
+            "allocatedBytes. The 'files' entry holds the same latencies for the 'open' and 'save' operations " +
+            "together with the bytes of the files read and written. The percentiles are accurate to 25%.\n\n" +
+            "Example:\n" +
+            "| ${metrics} | Get Excel Metrics |\n" +
+            "| Log | ${metrics['keywords']['getCellData']['p99Micros']} |" +
+            "\n")
+    @ArgumentNames({})
+    public Map<String, Object> getExcelMetrics() {
+        return KeywordMetrics.getInstance().getMetrics();
+    }
+
+
+    @RobotKeyword("Opens the .xlsx file using the given path in read only streaming mode.\n" +
+            "The workbook is not loaded into memory, the sheet data is read from the file on demand. " +
+            "Use this for huge workbooks which are only verified.\n\n" +
+            "Only the read keywords (Select Sheet, Get Cell Data, Get Row Values, Get Column Values, Get Row Count, " +
+            "Get Column Count, Get Number Of Sheets and Get Sheet Names) are supported in this mode.\n\n" +
+            "Example:\n" +
+            "| Open Excel Read Only Streaming | C:\\\\demo.xlsx |\n" +
+            "| Open Excel Read Only Streaming | C:\\\\expected.xlsx | alias=expected |" +
+            "\n")
+    @ArgumentNames({"excelFilePath", "alias=default"})
+    public void openExcelReadOnlyStreaming(String excelFilePath, String alias) throws IOException,
+            InvalidFormatException {
+        if (!excelFilePath.trim().endsWith(".xlsx")) {
+            throw new InvalidFormatException("Streaming read only mode supports only .xlsx format.");
+        }
+        long start = System.nanoTime();
+        ExcelSession newSession = new ExcelSession(alias, excelFilePath.trim());
+        newSession.streamingReader = new StreamingWorkbookReader(newSession.excelFilePath);
+        newSession.readOnly = true;
+        KeywordMetrics.getInstance().recordOpen(newSession.excelFilePath, System.nanoTime() - start);
+        register(newSession);
+    }
+
+    @RobotKeywordOverload
+    public void openExcelReadOnlyStreaming(String excelFilePath) throws IOException, InvalidFormatException {
+        openExcelReadOnlyStreaming(excelFilePath, DEFAULT_ALIAS);
+    }
+
+
+    @RobotKeyword("Opens the .xlsx file using the given path for reading only, parsing each sheet only when it is " +
+            "first read.\n" +
+            "Only the sheet names, shared strings and styles are read when the file is opened, so opening a " +
+            "workbook with many sheets to read one of them costs about one sheet's parse. A parsed sheet is kept in " +
+            "memory for the following reads until the parsed sheets take more than sheetCacheBytes (256 MB by " +
+            "default); then the least recently read sheets are dropped and parsed again when needed.\n" +
+            "The keywords work as with Open Excel Read Only Streaming, the write keywords fail.\n\n" +
+            "Example:\n" +
+            "| Open Excel Read Only Lazy | C:\\\\demo.xlsx |\n" +
+            "| Open Excel Read Only Lazy | C:\\\\expected.xlsx | alias=expected | sheetCacheBytes=67108864 |" +
+            "\n")
+    @ArgumentNames({"excelFilePath", "alias=default", "sheetCacheBytes=268435456"})
+    public void openExcelReadOnlyLazy(String excelFilePath, String alias, long sheetCacheBytes) throws IOException,
+            InvalidFormatException {
+        if (!excelFilePath.trim().endsWith(".xlsx")) {
+            throw new InvalidFormatException("Lazy read only mode supports only .xlsx format.");
+        }
+        if (sheetCacheBytes < 1) {
+            throw new IllegalArgumentException("The sheet cache needs room for at least one byte.");
+        }
+        long start = System.nanoTime();
+        ExcelSession newSession = new ExcelSession(alias, excelFilePath.trim());
+        newSession.streamingReader = new StreamingWorkbookReader(newSession.excelFilePath, sheetCacheBytes);
+        newSession.readOnly = true;
+        KeywordMetrics.getInstance().recordOpen(newSession.excelFilePath, System.nanoTime() - start);
+        register(newSession);
+    }
+
+    @RobotKeywordOverload
+    public void openExcelReadOnlyLazy(String excelFilePath, String alias) throws IOException,
+            InvalidFormatException {
+        openExcelReadOnlyLazy(excelFilePath, alias, DEFAULT_SHEET_CACHE_BYTES);
+    }
+
+    @RobotKeywordOverload
+    public void openExcelReadOnlyLazy(String excelFilePath) throws IOException, InvalidFormatException {
+        openExcelReadOnlyLazy(excelFilePath, DEFAULT_ALIAS, DEFAULT_SHEET_CACHE_BYTES);
+    }
+
+
+    @RobotKeyword("Makes the excel file opened with the given alias the active one.\n" +
+            "The file is not read again, its active sheet and cached values are kept while other files are used.\n\n" +
+            "The opened files and the active one are shared by every caller of the library in one JVM. Callers " +
+            "running keywords in parallel threads should use an alias each and switch to it before using it, or " +
+            "start the JVM with -Djyexcel.state.perThread=true to keep them per thread; that mode must not be " +
+            "combined with keyword or test timeouts, which run each keyword on a new thread.\n\n" +
+            "Example:\n" +
+            "| Open Excel | C:\\\\expected.xlsx | alias=expected |\n" +
+            "| Open Excel | C:\\\\actual.xlsx | alias=actual |\n" +
+            "| ${actual} | Get Cell Data | 1 | 2 |\n" +
+            "| Switch Excel | expected |\n" +
+            "| ${expected} | Get Cell Data | 1 | 2 |" +
+            "\n")
+    @ArgumentNames({"alias"})
+    public void switchExcel(String alias) {
+        registry().activate(alias);
+    }
+
+
+    @RobotKeyword("Closes the excel file opened with the given alias, or the active one when no alias is given.\n" +
+            "Changes which have not been saved are lost.\n\n" +
+            "Example:\n" +
+            "| Close Excel |\n" +
+            "| Close Excel | expected |" +
+            "\n")
+    @ArgumentNames({"alias="})
+    public void closeExcel(String alias) {
+        registry().close(alias);
+    }
+
+    @RobotKeywordOverload
+    public void closeExcel() {
+        closeExcel(currentSession().alias);
     }
 
 
@@ -59,7 +334,12 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"sheetName"})
     public void selectSheet(String sheetName) {
-        sheet = wb.getSheet(sheetName);
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            session.streamingReader.selectSheet(sheetName);
+            return;
+        }
+        session.sheet = session.wb.getSheet(sheetName);
     }
 
 
@@ -70,18 +350,24 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"rowNumber", "colNumber"})
     public String getCellData(int rowNumber, int colNumber) {
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            return session.streamingReader.getCellData(rowNumber, colNumber);
+        }
 
         Row row;
         Cell cell;
-        DataFormatter dataFormatter = new DataFormatter();
-        FormulaEvaluator formulaEvaluator = wb.getCreationHelper().createFormulaEvaluator();
-        row = sheet.getRow(rowNumber);
+        session.checkNotFlushed(rowNumber);
+        row = session.sheet.getRow(rowNumber);
+        if (row == null) {
+            return "";
+        }
 
         cell = row.getCell(colNumber);
         if (cell == null) {
             return "";
         } else {
-            return dataFormatter.formatCellValue(cell, formulaEvaluator);
+            return session.dataFormatter.formatCellValue(cell, session.getFormulaEvaluator());
         }
 
     }
@@ -94,7 +380,11 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({})
     public String getColumnCount() {
-        return String.valueOf(sheet.getRow(0).getLastCellNum());
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            return String.valueOf(session.streamingReader.getColumnCount());
+        }
+        return String.valueOf(getColumnCount(session));
     }
 
 
@@ -105,7 +395,46 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({})
     public String getRowCount() {
-        return String.valueOf(sheet.getLastRowNum() + 1);
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            return String.valueOf(session.streamingReader.getRowCount());
+        }
+        return String.valueOf(session.sheet.getLastRowNum() + 1);
+    }
+
+
+    @RobotKeyword("Returns the range of the active sheet which holds values, as a dictionary of its firstRow, " +
+            "firstColumn, lastRow and lastColumn indexes and its reference, e.g. A1:H4, for Get Range Values By " +
+            "Reference. Returns None when the sheet holds no values.\n" +
+            "Blank and empty cells don't count, so formatting alone doesn't extend the range. The range is computed " +
+            "once per sheet and kept up to date by the write keywords.\n\n" +
+            "Example:\n" +
+            "| ${range} | Get Used Range |\n" +
+            "| ${table} | Get Range Values By Reference | ${range['reference']} |\n" +
+            "| Should Be Equal As Integers | 3 | ${range['lastRow']} |" +
+            "\n")
+    @ArgumentNames({})
+    public Map<String, Object> getUsedRange() {
+        ExcelSession session = currentSession();
+        int[] usedRange;
+        if (session.streamingReader != null) {
+            usedRange = session.streamingReader.getUsedRange();
+        } else {
+            session.checkNotFlushed(0);
+            usedRange = session.getUsedRange(session.sheet);
+        }
+        if (usedRange.length == 0) {
+            return null;
+        }
+
+        Map<String, Object> range = new LinkedHashMap<>();
+        range.put("firstRow", usedRange[0]);
+        range.put("firstColumn", usedRange[1]);
+        range.put("lastRow", usedRange[2]);
+        range.put("lastColumn", usedRange[3]);
+        range.put("reference", new CellRangeAddress(usedRange[0], usedRange[2], usedRange[1], usedRange[3])
+                .formatAsString());
+        return range;
     }
 
 
@@ -116,12 +445,22 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"colNumber", "includeEmptyCells"})
     public String[] getColumnValues(int colNumber, boolean includeEmptyCells) {
-        int rowCount = Integer.valueOf(getRowCount());
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            return session.streamingReader.getColumnValues(colNumber, includeEmptyCells);
+        }
+        session.checkNotFlushed(0);
+        FormulaEvaluator evaluator = session.getFormulaEvaluator();
         ArrayList<String> colValues = new ArrayList<>();
 
-        String data;
-        for (int i = 0; i < rowCount; i++) {
-            data = getCellData(i, colNumber);
+        for (Row row : session.sheet) {
+            if (includeEmptyCells) {
+                while (colValues.size() < row.getRowNum()) {
+                    colValues.add("");
+                }
+            }
+            Cell cell = row.getCell(colNumber);
+            String data = cell == null ? "" : session.dataFormatter.formatCellValue(cell, evaluator);
             if (!(!includeEmptyCells && data.equals(""))) {
                 colValues.add(data);
             }
@@ -138,7 +477,11 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({})
     public String getNumberOfSheets() {
-        return String.valueOf(wb.getNumberOfSheets());
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            return String.valueOf(session.streamingReader.getNumberOfSheets());
+        }
+        return String.valueOf(session.wb.getNumberOfSheets());
     }
 
 
@@ -149,24 +492,546 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"rowNumber", "includeEmptyCells"})
     public String[] getRowValues(int rowNumber, boolean includeEmptyCells) {
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            return session.streamingReader.getRowValues(rowNumber, includeEmptyCells);
+        }
 
         ArrayList<String> rowValues = new ArrayList<>();
-        int colCount = Integer.parseInt(getColumnCount());
-        String data;
+        int colCount = getColumnCount(session);
+        session.checkNotFlushed(rowNumber);
+        Row row = session.sheet.getRow(rowNumber);
+
+        if (row != null) {
+            FormulaEvaluator evaluator = session.getFormulaEvaluator();
+            for (Cell cell : row) {
+                int colNumber = cell.getColumnIndex();
+                if (colNumber >= colCount) {
+                    break;
+                }
+                String data = session.dataFormatter.formatCellValue(cell, evaluator);
+                if (!includeEmptyCells && data.equals("")) {
+                    continue;
+                }
+                while (includeEmptyCells && rowValues.size() < colNumber) {
+                    rowValues.add("");
+                }
+                rowValues.add(data);
+            }
+        }
+        while (includeEmptyCells && rowValues.size() < colCount) {
+            rowValues.add("");
+        }
+
+        return rowValues.toArray(new String[rowValues.size()]);
+
+    }
+
 
-        for (int i = 0; i < colCount; i++) {
-            data = getCellData(rowNumber, i);
+    @RobotKeyword("Returns the values of a rectangular range from the active sheet in one call.\n" +
+            "The range is given by its first and last row and column indexes (both inclusive). Use -1 as lastRow to " +
+            "read until the last row of the sheet and -1 as lastColumn to read until the last cell of the range's " +
+            "first row.\n\n" +
+            "By default a list of rows is returned, each row being a list of cell values. When useHeaderRow is true " +
+            "the first row of the range is used as header and a list of dictionaries keyed by the header values is " +
+            "returned for the remaining rows.\n\n" +
+            "Example:\n" +
+            "| ${table} | Get Range Values | 0 | 0 | 3 | 7 |\n" +
+            "| Should Be Equal As Strings | Carol | ${table[2][1]} |\n" +
+            "| ${records} | Get Range Values | 0 | 0 | -1 | -1 | True |\n" +
+            "| Should Be Equal As Strings | Carol | ${records[1]['Name']} |" +
+            "\n")
+    @ArgumentNames({"firstRow", "firstColumn", "lastRow", "lastColumn", "useHeaderRow=False"})
+    public List<?> getRangeValues(int firstRow, int firstColumn, int lastRow, int lastColumn, boolean useHeaderRow) {
+        ExcelSession session = currentSession();
+        List<List<String>> rows;
+        if (session.streamingReader != null) {
+            rows = session.streamingReader.getRangeValues(firstRow, firstColumn, lastRow, lastColumn);
+        } else {
+            rows = readRange(session, firstRow, firstColumn, lastRow, lastColumn);
+        }
+        return useHeaderRow ? toRecords(rows) : rows;
+    }
+
+    @RobotKeywordOverload
+    public List<?> getRangeValues(int firstRow, int firstColumn, int lastRow, int lastColumn) {
+        return getRangeValues(firstRow, firstColumn, lastRow, lastColumn, false);
+    }
 
-            if (!includeEmptyCells && data.equals("")) {
-                continue;
+
+    @RobotKeyword("Returns the values of a range given in A1 notation from the active sheet in one call.\n" +
+            "See Get Range Values for the returned values.\n\n" +
+            "Example:\n" +
+            "| ${table} | Get Range Values By Reference | A1:H4 |\n" +
+            "| Should Be Equal As Strings | Carol | ${table[2][1]} |\n" +
+            "| ${records} | Get Range Values By Reference | A1:H4 | True |\n" +
+            "| Should Be Equal As Strings | Carol | ${records[1]['Name']} |" +
+            "\n")
+    @ArgumentNames({"range", "useHeaderRow=False"})
+    public List<?> getRangeValuesByReference(String range, boolean useHeaderRow) {
+        CellRangeAddress address = CellRangeAddress.valueOf(range.trim());
+        return getRangeValues(address.getFirstRow(), address.getFirstColumn(), address.getLastRow(),
+                address.getLastColumn(), useHeaderRow);
+    }
+
+    @RobotKeywordOverload
+    public List<?> getRangeValuesByReference(String range) {
+        return getRangeValuesByReference(range, false);
+    }
+
+
+    @RobotKeyword("Returns the value of the cell in the active sheet in its own type instead of formatted as text.\n" +
+            "Whole numbers are returned as integers, other numbers as floating point numbers, booleans as booleans, " +
+            "text as strings and dates as ISO 8601 strings (yyyy-MM-dd, or yyyy-MM-ddTHH:mm:ss when the time is " +
+            "set). Blank cells return None and error cells their error text, e.g. #DIV/0!.\n\n" +
+            "Formulas are evaluated as with Get Cell Data. When useCachedFormulaResult is true the result stored in " +
+            "the cell is returned instead, which skips the evaluation but misses changes made since the formula was " +
+            "last evaluated (see Evaluate All Formulas). Not supported in streaming read only mode.\n\n" +
+            "Example:\n" +
+            "| ${weight} | Get Cell Value Raw | 2 | 4 |\n" +
+            "| Should Be Equal | ${40.35} | ${weight} |\n" +
+            "| ${income} | Get Cell Value Raw | 2 | 7 | True |" +
+            "\n")
+    @ArgumentNames({"rowNumber", "colNumber", "useCachedFormulaResult=False"})
+    public Object getCellValueRaw(int rowNumber, int colNumber, boolean useCachedFormulaResult) {
+        ExcelSession session = currentSession();
+        RawValueReader reader = createRawValueReader(session, useCachedFormulaResult);
+        session.checkNotFlushed(rowNumber);
+        Row row = session.sheet.getRow(rowNumber);
+        return reader.read(row == null ? null : row.getCell(colNumber));
+    }
+
+    @RobotKeywordOverload
+    public Object getCellValueRaw(int rowNumber, int colNumber) {
+        return getCellValueRaw(rowNumber, colNumber, false);
+    }
+
+
+    @RobotKeyword("Returns the values of a given row of the active sheet in their own type, see Get Cell Value Raw.\n" +
+            "As many values as the first row has cells are returned, blank cells being None.\n\n" +
+            "Example:\n" +
+            "| ${row} | Get Row Values Raw | 2 |\n" +
+            "| Should Be Equal | ${28} | ${row[2]} |" +
+            "\n")
+    @ArgumentNames({"rowNumber", "useCachedFormulaResult=False"})
+    public List<Object> getRowValuesRaw(int rowNumber, boolean useCachedFormulaResult) {
+        ExcelSession session = currentSession();
+        RawValueReader reader = createRawValueReader(session, useCachedFormulaResult);
+        session.checkNotFlushed(rowNumber);
+        Row row = session.sheet.getRow(rowNumber);
+        Row headerRow = session.sheet.getRow(0);
+        int colCount = headerRow != null ? headerRow.getLastCellNum() : row != null ? row.getLastCellNum() : 0;
+
+        List<Object> rowValues = new ArrayList<>(Math.max(colCount, 0));
+        if (row != null) {
+            for (Cell cell : row) {
+                if (cell.getColumnIndex() >= colCount) {
+                    break;
+                }
+                while (rowValues.size() < cell.getColumnIndex()) {
+                    rowValues.add(null);
+                }
+                rowValues.add(reader.read(cell));
             }
-            rowValues.add(data);
+        }
+        while (rowValues.size() < colCount) {
+            rowValues.add(null);
+        }
+        return rowValues;
+    }
+
+    @RobotKeywordOverload
+    public List<Object> getRowValuesRaw(int rowNumber) {
+        return getRowValuesRaw(rowNumber, false);
+    }
 
 
+    @RobotKeyword("Returns the values of a given column of the active sheet in their own type, see Get Cell Value " +
+            "Raw.\n" +
+            "One value is returned per row of the sheet, blank cells being None.\n\n" +
+            "Example:\n" +
+            "| ${ages} | Get Column Values Raw | 2 |\n" +
+            "| Should Be Equal | ${28} | ${ages[2]} |" +
+            "\n")
+    @ArgumentNames({"colNumber", "useCachedFormulaResult=False"})
+    public List<Object> getColumnValuesRaw(int colNumber, boolean useCachedFormulaResult) {
+        ExcelSession session = currentSession();
+        RawValueReader reader = createRawValueReader(session, useCachedFormulaResult);
+        session.checkNotFlushed(0);
+
+        List<Object> colValues = new ArrayList<>(session.sheet.getPhysicalNumberOfRows());
+        for (Row row : session.sheet) {
+            while (colValues.size() < row.getRowNum()) {
+                colValues.add(null);
+            }
+            colValues.add(reader.read(row.getCell(colNumber)));
         }
+        return colValues;
+    }
 
-        return rowValues.toArray(new String[rowValues.size()]);
+    @RobotKeywordOverload
+    public List<Object> getColumnValuesRaw(int colNumber) {
+        return getColumnValuesRaw(colNumber, false);
+    }
+
+
+    @RobotKeyword("Returns the numbers of a given column of the active sheet, skipping every cell which doesn't hold a " +
+            "number, like the header, blank cells, text and dates.\n" +
+            "Whole numbers are returned as integers and other numbers as floating point numbers, see Get Cell Value " +
+            "Raw for useCachedFormulaResult.\n\n" +
+            "Example:\n" +
+            "| ${ages} | Get Column Numbers | 2 |\n" +
+            "| Should Be Equal | ${28} | ${ages[1]} |" +
+            "\n")
+    @ArgumentNames({"colNumber", "useCachedFormulaResult=False"})
+    public List<Number> getColumnNumbers(int colNumber, boolean useCachedFormulaResult) {
+        ExcelSession session = currentSession();
+        RawValueReader reader = createRawValueReader(session, useCachedFormulaResult);
+        session.checkNotFlushed(0);
+
+        List<Number> numbers = new ArrayList<>();
+        for (Row row : session.sheet) {
+            Cell cell = row.getCell(colNumber);
+            Number number = cell == null ? null : reader.readNumber(cell);
+            if (number != null) {
+                numbers.add(number);
+            }
+        }
+        return numbers;
+    }
+
+    @RobotKeywordOverload
+    public List<Number> getColumnNumbers(int colNumber) {
+        return getColumnNumbers(colNumber, false);
+    }
+
+
+    @RobotKeyword("Returns the sum of the numbers of a given column of the active sheet.\n" +
+            "The numbers are taken as with Get Column Numbers, but read in a single pass without building a list. In " +
+            "streaming read only mode the sheet XML is parsed directly and formulas count with the results saved in " +
+            "the file, so this scales to sheets with millions of rows.\n\n" +
+            "Example:\n" +
+            "| ${total} | Get Column Sum | 5 |\n" +
+            "| Should Be Equal | ${5600} | ${total} |" +
+            "\n")
+    @ArgumentNames({"colNumber", "useCachedFormulaResult=False"})
+    public Number getColumnSum(int colNumber, boolean useCachedFormulaResult) {
+        return aggregateColumn(colNumber, useCachedFormulaResult, false).getSum();
+    }
+
+    @RobotKeywordOverload
+    public Number getColumnSum(int colNumber) {
+        return getColumnSum(colNumber, false);
+    }
 
+
+    @RobotKeyword("Returns the smallest number of a given column of the active sheet, or None when the column holds " +
+            "no numbers. See Get Column Sum.\n\n" +
+            "Example:\n" +
+            "| ${lowest} | Get Column Min | 5 |" +
+            "\n")
+    @ArgumentNames({"colNumber", "useCachedFormulaResult=False"})
+    public Number getColumnMin(int colNumber, boolean useCachedFormulaResult) {
+        return aggregateColumn(colNumber, useCachedFormulaResult, false).getMin();
+    }
+
+    @RobotKeywordOverload
+    public Number getColumnMin(int colNumber) {
+        return getColumnMin(colNumber, false);
+    }
+
+
+    @RobotKeyword("Returns the largest number of a given column of the active sheet, or None when the column holds " +
+            "no numbers. See Get Column Sum.\n\n" +
+            "Example:\n" +
+            "| ${highest} | Get Column Max | 5 |" +
+            "\n")
+    @ArgumentNames({"colNumber", "useCachedFormulaResult=False"})
+    public Number getColumnMax(int colNumber, boolean useCachedFormulaResult) {
+        return aggregateColumn(colNumber, useCachedFormulaResult, false).getMax();
+    }
+
+    @RobotKeywordOverload
+    public Number getColumnMax(int colNumber) {
+        return getColumnMax(colNumber, false);
+    }
+
+
+    @RobotKeyword("Returns the average of the numbers of a given column of the active sheet, or None when the " +
+            "column holds no numbers. See Get Column Sum.\n\n" +
+            "Example:\n" +
+            "| ${average} | Get Column Average | 2 |" +
+            "\n")
+    @ArgumentNames({"colNumber", "useCachedFormulaResult=False"})
+    public Number getColumnAverage(int colNumber, boolean useCachedFormulaResult) {
+        return aggregateColumn(colNumber, useCachedFormulaResult, false).getAverage();
+    }
+
+    @RobotKeywordOverload
+    public Number getColumnAverage(int colNumber) {
+        return getColumnAverage(colNumber, false);
+    }
+
+
+    @RobotKeyword("Returns how many different numbers a given column of the active sheet holds. See Get Column " +
+            "Sum.\n\n" +
+            "Example:\n" +
+            "| ${count} | Get Column Count Distinct | 5 |\n" +
+            "| Should Be Equal As Integers | 2 | ${count} |" +
+            "\n")
+    @ArgumentNames({"colNumber", "useCachedFormulaResult=False"})
+    public int getColumnCountDistinct(int colNumber, boolean useCachedFormulaResult) {
+        return aggregateColumn(colNumber, useCachedFormulaResult, true).getDistinctCount();
+    }
+
+    @RobotKeywordOverload
+    public int getColumnCountDistinct(int colNumber) {
+        return getColumnCountDistinct(colNumber, false);
+    }
+
+
+    @RobotKeyword("Builds a hash index over the values of the given column of the given sheet, so that Get Row By " +
+            "Key and Get Cell By Key find a row without scanning the sheet.\n" +
+            "Each value formatted as Get Cell Data returns it maps to the first row holding it, empty cells are not " +
+            "indexed. A sheet has one index at a time, creating another one replaces it. The index is rebuilt on the " +
+            "next lookup after a keyword wrote into the indexed column.\n\n" +
+            "Example:\n" +
+            "| Create Column Index | Sheet1 | 1 |\n" +
+            "| ${row} | Get Row By Key | Sheet1 | Carol |\n" +
+            "| ${age} | Get Cell By Key | Sheet1 | Carol | 2 |" +
+            "\n")
+    @ArgumentNames({"sheetName", "colNumber"})
+    public void createColumnIndex(String sheetName, int colNumber) {
+        ExcelSession session = currentSession();
+        Sheet indexedSheet = getIndexableSheet(session, sheetName);
+        session.createColumnIndex(indexedSheet, colNumber)
+                .build(indexedSheet, session.dataFormatter, session.getFormulaEvaluator());
+    }
+
+
+    @RobotKeyword("Returns the row values of the row whose indexed column holds the given key, see Create Column " +
+            "Index. Empty cells are included, so the values line up with the columns.\n\n" +
+            "Example:\n" +
+            "| ${row} | Get Row By Key | Sheet1 | Carol |\n" +
+            "| Should Be Equal As Strings | 28 | ${row[2]} |" +
+            "\n")
+    @ArgumentNames({"sheetName", "key"})
+    public String[] getRowByKey(String sheetName, String key) {
+        ExcelSession session = currentSession();
+        Sheet indexedSheet = getIndexableSheet(session, sheetName);
+        Row row = indexedSheet.getRow(findRowNumber(session, indexedSheet, key));
+        Row headerRow = indexedSheet.getRow(0);
+        int colCount = headerRow == null ? row.getLastCellNum() : headerRow.getLastCellNum();
+
+        String[] rowValues = new String[Math.max(colCount, 0)];
+        for (int i = 0; i < rowValues.length; i++) {
+            Cell cell = row.getCell(i);
+            rowValues[i] = cell == null ? "" :
+                    session.dataFormatter.formatCellValue(cell, session.getFormulaEvaluator());
+        }
+        return rowValues;
+    }
+
+
+    @RobotKeyword("Returns the data of the given column from the row whose indexed column holds the given key, see " +
+            "Create Column Index.\n\n" +
+            "Example:\n" +
+            "| ${age} | Get Cell By Key | Sheet1 | Carol | 2 |\n" +
+            "| Should Be Equal As Strings | 28 | ${age} |" +
+            "\n")
+    @ArgumentNames({"sheetName", "key", "colNumber"})
+    public String getCellByKey(String sheetName, String key, int colNumber) {
+        ExcelSession session = currentSession();
+        Sheet indexedSheet = getIndexableSheet(session, sheetName);
+        Cell cell = indexedSheet.getRow(findRowNumber(session, indexedSheet, key)).getCell(colNumber);
+        return cell == null ? "" : session.dataFormatter.formatCellValue(cell, session.getFormulaEvaluator());
+    }
+
+
+    @RobotKeyword("Returns the cells whose data matches the given regular expression, searching every sheet of the " +
+            "active excel file or only the given one.\n" +
+            "The data is matched as Get Cell Data returns it and the expression may match any part of it, use ^ and " +
+            "$ to match the whole value. Each match is a dictionary holding the sheet, row, column and value of the " +
+            "cell, ordered by sheet, row and column. The sheets of .xlsx files opened with Open Excel Read Only " +
+            "Streaming are searched in parallel without loading them.\n\n" +
+            "When maxMatches is greater than 0 only the first maxMatches matches are returned, and the search stops " +
+            "as soon as they have been found.\n\n" +
+            "Example:\n" +
+            "| ${matches} | Find Cells Matching | ^Car |\n" +
+            "| Should Be Equal As Strings | Carol | ${matches[0]['value']} |\n" +
+            "| ${matches} | Find Cells Matching | ^\\\\d+\\\\.\\\\d+$ | Sheet1 | 1 |\n" +
+            "| Should Be Equal As Integers | 4 | ${matches[0]['column']} |" +
+            "\n")
+    @ArgumentNames({"regex", "sheetName=", "maxMatches=0"})
+    public List<Map<String, Object>> findCellsMatching(String regex, String sheetName, int maxMatches) {
+        ExcelSession session = currentSession();
+        CellSearch search = new CellSearch(regex, maxMatches);
+        if (session.streamingReader != null) {
+            return search.find(session.streamingReader, sheetName.isEmpty() ?
+                    Arrays.asList(session.streamingReader.getSheetNames()) : Collections.singletonList(sheetName));
+        }
+
+        List<Sheet> sheets = new ArrayList<>();
+        if (sheetName.isEmpty()) {
+            for (Sheet sheet : session.wb) {
+                sheets.add(sheet);
+            }
+        } else {
+            sheets.add(getSheet(session, sheetName));
+        }
+        return search.find(session, sheets);
+    }
+
+    @RobotKeywordOverload
+    public List<Map<String, Object>> findCellsMatching(String regex, String sheetName) {
+        return findCellsMatching(regex, sheetName, 0);
+    }
+
+    @RobotKeywordOverload
+    public List<Map<String, Object>> findCellsMatching(String regex) {
+        return findCellsMatching(regex, "", 0);
+    }
+
+
+    @RobotKeyword("Writes the given sheet, or the active sheet when no sheet name is given, into a CSV file.\n" +
+            "The rows are written as they are read, so even sheets with millions of rows opened with Open Excel Read " +
+            "Only Streaming are exported without loading them. The values are formatted as Get Cell Data returns " +
+            "them; missing rows are written as empty lines and every line has at least as many values as the first " +
+            "row. Values holding a comma, a quote or a line break are quoted. The file is written in UTF-8 and an " +
+            "existing file is overwritten.\n\n" +
+            "Example:\n" +
+            "| Export Sheet To CSV | C:\\\\demo.csv |\n" +
+            "| Export Sheet To CSV | C:\\\\demo.csv | Sheet1 |" +
+            "\n")
+    @ArgumentNames({"outputFilePath", "sheetName="})
+    public void exportSheetToCsv(String outputFilePath, String sheetName) throws IOException {
+        ExcelSession session = currentSession();
+        Sheet exportedSheet = getExportedSheet(session, sheetName);
+        exportSheet(session, sheetName, exportedSheet, new SheetExport.Csv(outputFilePath.trim()));
+    }
+
+    @RobotKeywordOverload
+    public void exportSheetToCsv(String outputFilePath) throws IOException {
+        exportSheetToCsv(outputFilePath, "");
+    }
+
+
+    @RobotKeyword("Writes the given sheet, or the active sheet when no sheet name is given, into a JSON Lines file.\n" +
+            "Each row becomes a line holding a JSON array of its values. When useHeaderRow is true the first row is " +
+            "used as header and every following row becomes a JSON object keyed by the header values instead. The " +
+            "rows are written as they are read, as with Export Sheet To CSV.\n\n" +
+            "Example:\n" +
+            "| Export Sheet To JSONL | C:\\\\demo.jsonl |\n" +
+            "| Export Sheet To JSONL | C:\\\\demo.jsonl | Sheet1 | True |" +
+            "\n")
+    @ArgumentNames({"outputFilePath", "sheetName=", "useHeaderRow=False"})
+    public void exportSheetToJsonl(String outputFilePath, String sheetName, boolean useHeaderRow)
+            throws IOException {
+        ExcelSession session = currentSession();
+        Sheet exportedSheet = getExportedSheet(session, sheetName);
+        exportSheet(session, sheetName, exportedSheet,
+                new SheetExport.JsonLines(outputFilePath.trim(), useHeaderRow));
+    }
+
+    @RobotKeywordOverload
+    public void exportSheetToJsonl(String outputFilePath, String sheetName) throws IOException {
+        exportSheetToJsonl(outputFilePath, sheetName, false);
+    }
+
+    @RobotKeywordOverload
+    public void exportSheetToJsonl(String outputFilePath) throws IOException {
+        exportSheetToJsonl(outputFilePath, "", false);
+    }
+
+
+    @RobotKeyword("Reads the given CSV file into the given sheet of the active workbook, starting at the given " +
+            "row, and returns the number of records read.\n" +
+            "The sheet is created when it doesn't exist yet; without a sheet name the active sheet is used. The file " +
+            "is read in UTF-8 as it is written into the sheet, so a workbook created with Create Workbook Streaming " +
+            "imports files of any size with bounded memory.\n\n" +
+            "The type of each column is inferred from the first records after the header: a column whose values " +
+            "all are numbers, true/false or dates in the format set by Set Date Format is written as numbers, " +
+            "booleans or dates, every other column as strings. Values which don't fit their column, like the " +
+            "header, are written as strings. Values starting with = are not written as formulas.\n\n" +
+            "Example:\n" +
+            "| Import CSV To Sheet | C:\\\\demo.csv |\n" +
+            "| ${count} | Import CSV To Sheet | C:\\\\demo.csv | Imported | 0 |" +
+            "\n")
+    @ArgumentNames({"csvFilePath", "sheetName=", "startRow=0"})
+    public int importCsvToSheet(String csvFilePath, String sheetName, int startRow) throws IOException {
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        Sheet targetSheet = sheetName.isEmpty() ? session.sheet : session.wb.getSheet(sheetName);
+        if (targetSheet == null) {
+            targetSheet = session.wb.createSheet(sheetName);
+            session.sheetsChanged();
+        }
+        session.checkNotFlushed(targetSheet, startRow);
+
+        SessionRegistry registry = registry();
+        CsvImport csvImport = new CsvImport(session, targetSheet, registry.createDateFormatter(),
+                registry.getDatePattern());
+        try (CsvReader csvReader = new CsvReader(csvFilePath.trim())) {
+            return csvImport.importRecords(csvReader, startRow);
+        }
+    }
+
+    @RobotKeywordOverload
+    public int importCsvToSheet(String csvFilePath, String sheetName) throws IOException {
+        return importCsvToSheet(csvFilePath, sheetName, 0);
+    }
+
+    @RobotKeywordOverload
+    public int importCsvToSheet(String csvFilePath) throws IOException {
+        return importCsvToSheet(csvFilePath, "", 0);
+    }
+
+
+    @RobotKeyword("Compares every sheet of the expected excel file with the sheet of the same name in the actual " +
+            "one and returns their differences, at most maxDifferences of them.\n" +
+            "Each difference is a dictionary holding the sheet, row and column of the cell with the expected and the " +
+            "actual value, formatted as Get Cell Data returns them; formulas are compared by the results saved in " +
+            "the files. A sheet missing from one of the files is reported with None as row, column and missing " +
+            "value. The differences are ordered by sheet, row and column, so an empty list means the workbooks " +
+            "hold the same values.\n\n" +
+            "Both files are read once, the sheets in parallel. Rows are compared by a hash of their values first, " +
+            "so identical rows cost little, and .xlsx files are read in streaming mode, so even very large files " +
+            "are compared with a small, fixed amount of memory. The files don't have to be open.\n\n" +
+            "Example:\n" +
+            "| ${differences} | Compare Workbooks | C:\\\\expected.xlsx | C:\\\\actual.xlsx |\n" +
+            "| Should Be Empty | ${differences} |" +
+            "\n")
+    @ArgumentNames({"expectedFilePath", "actualFilePath", "maxDifferences=100"})
+    public List<Map<String, Object>> compareWorkbooks(String expectedFilePath, String actualFilePath,
+                                                      int maxDifferences) throws IOException, InvalidFormatException {
+        return new WorkbookComparison(maxDifferences).compareWorkbooks(expectedFilePath.trim(),
+                actualFilePath.trim());
+    }
+
+    @RobotKeywordOverload
+    public List<Map<String, Object>> compareWorkbooks(String expectedFilePath, String actualFilePath)
+            throws IOException, InvalidFormatException {
+        return compareWorkbooks(expectedFilePath, actualFilePath, DEFAULT_MAX_DIFFERENCES);
+    }
+
+
+    @RobotKeyword("Compares the given sheet of the expected excel file with the sheet of the same name in the actual " +
+            "one and returns their differences, at most maxDifferences of them. See Compare Workbooks.\n\n" +
+            "Example:\n" +
+            "| ${differences} | Compare Sheets | C:\\\\expected.xlsx | C:\\\\actual.xlsx | Sheet1 |\n" +
+            "| Should Be Empty | ${differences} |" +
+            "\n")
+    @ArgumentNames({"expectedFilePath", "actualFilePath", "sheetName", "maxDifferences=100"})
+    public List<Map<String, Object>> compareSheets(String expectedFilePath, String actualFilePath, String sheetName,
+                                                   int maxDifferences) throws IOException, InvalidFormatException {
+        return new WorkbookComparison(maxDifferences).compareSheets(expectedFilePath.trim(), actualFilePath.trim(),
+                sheetName);
+    }
+
+    @RobotKeywordOverload
+    public List<Map<String, Object>> compareSheets(String expectedFilePath, String actualFilePath, String sheetName)
+            throws IOException, InvalidFormatException {
+        return compareSheets(expectedFilePath, actualFilePath, sheetName, DEFAULT_MAX_DIFFERENCES);
     }
 
 
@@ -177,11 +1042,15 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({})
     public String[] getSheetNames() {
+        ExcelSession session = currentSession();
+        if (session.streamingReader != null) {
+            return session.streamingReader.getSheetNames();
+        }
 
         int noOfSheets = Integer.parseInt(getNumberOfSheets());
         ArrayList<String> sheetNames = new ArrayList<>();
         for (int i = 0; i < noOfSheets; i++) {
-            sheetNames.add(wb.getSheetName(i));
+            sheetNames.add(session.wb.getSheetName(i));
         }
 
         return sheetNames.toArray(new String[sheetNames.size()]);
@@ -193,12 +1062,56 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"name"})
     public void addNewSheet(String name) throws IOException {
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        session.wb.createSheet(name);
+        session.sheetsChanged();
 
-        wb.createSheet(name);
+    }
+
+    @RobotKeyword("Writes a table of values into the active sheet in one call, starting at the given cell.\n" +
+            "The rows argument is a list of rows, each row being a list of values.\n\n" +
+            "The cell type is inferred from each value: numbers become numeric cells, true/false become boolean " +
+            "cells, dates in the format set by Set Date Format (MM-dd-yyyy by default) become date cells, values " +
+            "starting with = become formulas and empty values clear the cell. Everything else is written as a " +
+            "string.\n\n" +
+            "Example:\n" +
+            "| @{row1} | Create List | Name | Age | Joined |\n" +
+            "| @{row2} | Create List | Tom | 30 | 03-30-2018 |\n" +
+            "| @{rows} | Create List | ${row1} | ${row2} |\n" +
+            "| Set Range Values | ${rows} | 0 | 0 |\n" +
+            "\n")
+    @ArgumentNames({"rows", "startRow", "startColumn"})
+    public void setRangeValues(List<?> rows, int startRow, int startColumn) {
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        int rowNumber = startRow;
+        int lastColumn = startColumn - 1;
+        for (Object values : rows) {
+            session.checkNotFlushed(rowNumber);
+            Row row = session.sheet.getRow(rowNumber);
+            if (row == null) {
+                row = session.sheet.createRow(rowNumber);
+            }
 
+            int columnNumber = startColumn;
+            for (Object value : toList(values)) {
+                Cell cell = row.getCell(columnNumber);
+                if (cell == null) {
+                    cell = row.createCell(columnNumber);
+                }
+                setInferredCellValue(session, cell, value);
+                columnNumber++;
+            }
+            lastColumn = Math.max(lastColumn, columnNumber - 1);
+            rowNumber++;
+        }
 
+        session.columnsChanged(session.sheet, startColumn, lastColumn);
+        session.cellsChanged();
     }
 
+
     @RobotKeyword("Sets the value of the cell in the active sheet with a number.\n\n" +
             "Example:\n" +
             "| Set Cell Value With Number | 34 | 1 | 2 |\n" +
@@ -207,10 +1120,15 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"number", "rowNumber", "columnNumber"})
     public void setCellValueWithNumber(double number, int rowNumber, int columnNumber) {
-
-        Cell cell = getCell(rowNumber, columnNumber);
+        ExcelSession session = currentSession();
+        if (session.editBatch != null) {
+            session.editBatch.queue(session.sheet, rowNumber, columnNumber, EditBatch.NUMBER, number, null, null);
+            return;
+        }
+        Cell cell = getCell(session, rowNumber, columnNumber);
         cell.setCellType(CellType.NUMERIC);
         cell.setCellValue(number);
+        session.cellValueChanged(cell);
 
     }
 
@@ -221,10 +1139,15 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"string", "rowNumber", "columnNumber"})
     public void setCellValueWithString(String string, int rowNumber, int columnNumber) {
-
-        Cell cell = getCell(rowNumber, columnNumber);
+        ExcelSession session = currentSession();
+        if (session.editBatch != null) {
+            session.editBatch.queue(session.sheet, rowNumber, columnNumber, EditBatch.STRING, 0, string, null);
+            return;
+        }
+        Cell cell = getCell(session, rowNumber, columnNumber);
         cell.setCellType(CellType.STRING);
         cell.setCellValue(string);
+        session.cellValueChanged(cell);
 
     }
 
@@ -236,9 +1159,15 @@ public class ExcelKeywords {
     @ArgumentNames({"string", "rowNumber", "columnNumber"})
 
     public void setCellValueWithFormula(String formula, int rowNumber, int columnNumber) {
-        Cell cell = getCell(rowNumber, columnNumber);
+        ExcelSession session = currentSession();
+        if (session.editBatch != null) {
+            session.editBatch.queue(session.sheet, rowNumber, columnNumber, EditBatch.FORMULA, 0, formula, null);
+            return;
+        }
+        Cell cell = getCell(session, rowNumber, columnNumber);
         cell.setCellType(CellType.FORMULA);
         cell.setCellFormula(formula);
+        session.cellFormulaChanged(cell);
 
     }
 
@@ -248,7 +1177,10 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"string"})
     public void removeSheet(String sheetName) {
-        wb.removeSheetAt(wb.getSheetIndex(sheetName));
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        session.wb.removeSheetAt(session.wb.getSheetIndex(sheetName));
+        session.sheetRemoved(sheetName);
 
     }
 
@@ -259,34 +1191,53 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"string", "rowNumber", "columnNumber"})
     public void setCellValueWithBoolean(String booleanValue, int rowNumber, int columnNumber) {
-        Cell cell = getCell(rowNumber, columnNumber);
+        ExcelSession session = currentSession();
+        if (session.editBatch != null) {
+            session.editBatch.queue(session.sheet, rowNumber, columnNumber, EditBatch.BOOLEAN, 0, booleanValue, null);
+            return;
+        }
+        Cell cell = getCell(session, rowNumber, columnNumber);
         cell.setCellType(CellType.BOOLEAN);
         cell.setCellValue(booleanValue);
+        session.cellValueChanged(cell);
     }
 
 
-    @RobotKeyword("Sets the value of the cell in the active sheet with date(MM-dd-yyyy).\n\n" +
+    @RobotKeyword("Sets the value of the cell in the active sheet with date(MM-dd-yyyy).\n" +
+            "A different date format can be set with Set Date Format.\n\n" +
             "Example:\n" +
             "| Set Cell Value With Date | 03-30-2018 | 1 | 2 |\n" +
             "\n")
     @ArgumentNames({"dateValue", "rowNumber", "columnNumber"})
     public void setCellValueWithDate(String dateValue, int rowNumber, int columnNumber) {
+        ExcelSession session = currentSession();
+        SessionRegistry registry = registry();
+        String datePattern = registry.getDatePattern();
+        Date date = registry.toDate(dateValue);
+        if (session.editBatch != null) {
+            session.editBatch.queue(session.sheet, rowNumber, columnNumber, EditBatch.DATE, 0, date, datePattern);
+            return;
+        }
+        Cell cell = getCell(session, rowNumber, columnNumber);
+        cell.setCellValue(date);
+        cell.setCellStyle(session.getCellStylePool().getStyle(datePattern));
+        session.cellValueChanged(cell);
 
-        CellStyle cellStyle = wb.createCellStyle();
-        CreationHelper createHelper = wb.getCreationHelper();
-        short dateFormat = createHelper.createDataFormat().getFormat("MM-dd-yyyy");
-        cellStyle.setDataFormat(dateFormat);
-
-        SimpleDateFormat formatter = new SimpleDateFormat("MM-dd-yyyy");
+    }
 
-        Cell cell = getCell(rowNumber, columnNumber);
-        try {
-            cell.setCellValue(formatter.parse(dateValue));
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-        cell.setCellStyle(cellStyle);
 
+    @RobotKeyword("Sets the date format used by Set Cell Value With Date and Set Range Values.\n" +
+            "The pattern is used both to parse the given dates (java.text.SimpleDateFormat syntax) and as the " +
+            "excel number format of the written cells, so use patterns which mean the same in both, " +
+            "e.g. yyyy-MM-dd or dd/MM/yyyy HH:mm. The default is MM-dd-yyyy. The format is shared by every caller of " +
+            "the library in one JVM, unless the state is kept per thread, see Switch Excel.\n\n" +
+            "Example:\n" +
+            "| Set Date Format | yyyy-MM-dd |\n" +
+            "| Set Cell Value With Date | 2018-03-30 | 1 | 2 |\n" +
+            "\n")
+    @ArgumentNames({"pattern"})
+    public void setDateFormat(String pattern) {
+        registry().setDatePattern(pattern.trim());
     }
 
 
@@ -296,45 +1247,187 @@ public class ExcelKeywords {
             "\n")
     @ArgumentNames({"rowNumber", "columnNumber"})
     public void removeCellValue(int rowNumber, int columnNumber) {
-        Cell cell = getCell(rowNumber, columnNumber);
+        ExcelSession session = currentSession();
+        if (session.editBatch != null) {
+            session.editBatch.queue(session.sheet, rowNumber, columnNumber, EditBatch.REMOVE, 0, null, null);
+            return;
+        }
+        Cell cell = getCell(session, rowNumber, columnNumber);
         cell.setCellType(CellType.BLANK);
         cell.setCellValue("");
+        session.cellValueChanged(cell);
 
 
     }
 
-    @RobotKeyword("Saves the excel sheet after making any changes to it.\n\n" +
+    @RobotKeyword("Starts a batch of edits on the active excel file.\n" +
+            "Until Commit Excel Batch, the Set Cell Value With * keywords and Remove Cell Value only queue their " +
+            "edits. The commit applies them in one pass ordered by sheet, row and column, and refreshes the " +
+            "formula results once, which makes long series of edits much faster. Rollback Excel Batch drops the " +
+            "queued edits instead.\n\n" +
+            "While the batch is open, reads return the values from before the batch, and Save Excel saves only " +
+            "committed edits.\n\n" +
+            "Example:\n" +
+            "| Begin Excel Batch |\n" +
+            "| Set Cell Value With Number | 34 | 1 | 2 |\n" +
+            "| Set Cell Value With String | dummy | 1 | 3 |\n" +
+            "| Commit Excel Batch |\n" +
+            "\n")
+    @ArgumentNames({})
+    public void beginExcelBatch() {
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        if (session.editBatch != null) {
+            throw new IllegalStateException("A batch is already open on the excel file " + session.excelFilePath +
+                    ".");
+        }
+        session.editBatch = new EditBatch(session);
+    }
+
+
+    @RobotKeyword("Applies the edits queued since Begin Excel Batch and closes the batch. Returns the number of " +
+            "applied edits.\n\n" +
+            "Example:\n" +
+            "| Begin Excel Batch |\n" +
+            "| Set Cell Value With Number | 34 | 1 | 2 |\n" +
+            "| ${count} | Commit Excel Batch |\n" +
+            "\n")
+    @ArgumentNames({})
+    public int commitExcelBatch() {
+        ExcelSession session = currentSession();
+        EditBatch editBatch = removeEditBatch(session);
+        return editBatch.commit();
+    }
+
+
+    @RobotKeyword("Drops the edits queued since Begin Excel Batch and closes the batch.\n\n" +
+            "Example:\n" +
+            "| Begin Excel Batch |\n" +
+            "| Set Cell Value With Number | 34 | 1 | 2 |\n" +
+            "| Rollback Excel Batch |\n" +
+            "\n")
+    @ArgumentNames({})
+    public void rollbackExcelBatch() {
+        removeEditBatch(currentSession());
+    }
+
+    @RobotKeyword("Evaluates all the formulas of the active workbook and stores their results in the cells.\n" +
+            "Use this once after a batch of changes, so that the following reads don't have to evaluate the " +
+            "dependent formulas again.\n\n" +
+            "Example:\n" +
+            "| Set Cell Value With Number | 34 | 1 | 2 |\n" +
+            "| Evaluate All Formulas |\n" +
+            "\n")
+    @ArgumentNames({})
+    public void evaluateAllFormulas() {
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        session.getFormulaEvaluator().evaluateAll();
+    }
+
+    @RobotKeyword("Saves the excel sheet after making any changes to it.\n" +
+            "The workbook is written into a temporary file which then replaces the excel file, so the file is never " +
+            "left half written. For an .xlsx file only the sheets changed since it was opened or last saved are " +
+            "written again, the rest of the file is copied as it is, unless sheets were added or removed. Fails " +
+            "when the file cannot be written, leaving the file as it was.\n\n" +
             "Example:\n" +
             "| Remove Cell Value | 1 | 2 |\n" +
             "| Save Excel |\n")
     @ArgumentNames({})
 
     public void saveExcel() {
-        openFileToWrite();
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        try {
+            session.save();
+        } catch (IOException e) {
+            throw new IllegalStateException("Saving the excel file " + session.excelFilePath + " failed.", e);
+        }
+    }
+
+
+    @RobotKeyword("Saves the active excel file in the background and returns a handle for Wait For Save.\n" +
+            "Other keywords can run while the file is written. Keywords using the same excel file wait until " +
+            "the save has finished, so it is never changed while being written. Failures of the save are reported " +
+            "by Wait For Save.\n\n" +
+            "Example:\n" +
+            "| ${save} | Save Excel Async |\n" +
+            "| Switch Excel | expected |\n" +
+            "| ${value} | Get Cell Data | 1 | 2 |\n" +
+            "| Wait For Save | ${save} |\n")
+    @ArgumentNames({})
+    public String saveExcelAsync() {
+        ExcelSession session = currentSession();
+        session.checkWritable();
+        return registry().addPendingSave(session.saveAsync(SAVE_EXECUTOR));
     }
 
-    private Cell getCell(int rowNumber, int columnNumber) {
-        Row row = sheet.getRow(rowNumber);
+
+    @RobotKeyword("Waits until the save started by Save Excel Async with the given handle has finished, or until " +
+            "every pending save has finished when no handle is given. Fails if the save failed.\n\n" +
+            "Example:\n" +
+            "| ${save} | Save Excel Async |\n" +
+            "| Wait For Save | ${save} |\n" +
+            "| Wait For Save |\n")
+    @ArgumentNames({"handle="})
+    public void waitForSave(String handle) throws IOException, InterruptedException {
+        Future<?> pendingSave = registry().removePendingSave(handle);
+        if (pendingSave == null) {
+            throw new IllegalArgumentException("No save is pending with handle " + handle + ".");
+        }
+        try {
+            pendingSave.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Saving the excel file failed.", e.getCause());
+        }
+    }
+
+    @RobotKeywordOverload
+    public void waitForSave() throws IOException, InterruptedException {
+        for (String handle : registry().getPendingSaveHandles()) {
+            waitForSave(handle);
+        }
+    }
+
+    private EditBatch removeEditBatch(ExcelSession session) {
+        EditBatch editBatch = session.editBatch;
+        if (editBatch == null) {
+            throw new IllegalStateException("No batch is open on the excel file " + session.excelFilePath + ".");
+        }
+        session.editBatch = null;
+        return editBatch;
+    }
+
+    private Cell getCell(ExcelSession session, int rowNumber, int columnNumber) {
+        session.checkWritable();
+        session.checkNotFlushed(rowNumber);
+        Row row = session.sheet.getRow(rowNumber);
         Cell cell;
         if (row == null) {
-            row = sheet.createRow(rowNumber);
+            row = session.sheet.createRow(rowNumber);
         }
 
         cell = row.getCell(columnNumber);
         if (cell == null) {
             cell = row.createCell(columnNumber);
         }
+        session.columnsChanged(session.sheet, columnNumber, columnNumber);
         return cell;
     }
 
-    @RobotKeyword("Creates a new excel workbook with the given name.\n\n" +
+    @RobotKeyword("Creates a new excel workbook with the given name and opens it as the active workbook.\n" +
+            "The workbook is kept under the given alias like a file opened with Open Excel, see Switch Excel; files " +
+            "opened under other aliases are left as they are.\n\n" +
             "Example:\n" +
             "| Create Workbook | C:\\Demo.xlsx |\n" +
             "| Create Workbook | C:\\Demo.xls |\n" +
+            "| Create Workbook | C:\\Report.xlsx | alias=report |\n" +
             "\n")
-    @ArgumentNames({"rowNumber", "columnNumber"})
-    public void createWorkBook(String excelFilePath) throws InvalidFormatException {
-        this.excelFilePath = excelFilePath;
+    @ArgumentNames({"excelFilePath", "alias=default"})
+    public void createWorkBook(String excelFilePath, String alias) throws InvalidFormatException {
         Workbook newWb;
 
         if (excelFilePath.endsWith(".xlsx")) {
@@ -348,49 +1441,251 @@ public class ExcelKeywords {
 
         newWb.createSheet("Sheet1");
 
-        try {
-            FileOutputStream newFOStream = new FileOutputStream(excelFilePath);
+        try (FileOutputStream newFOStream = new FileOutputStream(excelFilePath)) {
             newWb.write(newFOStream);
-            newFOStream.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Creating the excel file " + excelFilePath + " failed.", e);
         }
+
+        ExcelSession newSession = new ExcelSession(alias, excelFilePath.trim());
+        newSession.openFileToRead();
+        register(newSession);
     }
 
+    @RobotKeywordOverload
+    public void createWorkBook(String excelFilePath) throws InvalidFormatException {
+        createWorkBook(excelFilePath, DEFAULT_ALIAS);
+    }
 
-    private void openFileToRead() {
 
-        try {
-            fileInputStream = new FileInputStream(excelFilePath);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    @RobotKeyword("Creates a new .xlsx workbook with the given name in streaming write mode and makes it the active " +
+            "workbook.\n" +
+            "Only the last rowAccessWindowSize rows of each sheet are kept in memory, older rows are flushed to a " +
+            "temporary file. Use this to generate very large sheets.\n\n" +
+            "The Set Cell Value With * keywords, Remove Cell Value and Get Cell Data work only on rows which are still " +
+            "inside the window, accessing a flushed row fails. Save Excel flushes every remaining row, so rows " +
+            "written before saving cannot be changed afterwards. The file is written only by Save Excel.\n\n" +
+            "The workbook is kept under the given alias like a file opened with Open Excel, see Switch Excel.\n\n" +
+            "Example:\n" +
+            "| Create Workbook Streaming | C:\\\\Demo.xlsx |\n" +
+            "| Create Workbook Streaming | C:\\\\Demo.xlsx | 500 |\n" +
+            "| Create Workbook Streaming | C:\\\\Report.xlsx | alias=report |\n" +
+            "\n")
+    @ArgumentNames({"excelFilePath", "rowAccessWindowSize=100", "alias=default"})
+    public void createWorkBookStreaming(String excelFilePath, int rowAccessWindowSize, String alias)
+            throws InvalidFormatException {
+        if (!excelFilePath.trim().endsWith(".xlsx")) {
+            throw new InvalidFormatException("Streaming write mode supports only .xlsx format.");
         }
+        SXSSFWorkbook newWb = new SXSSFWorkbook(rowAccessWindowSize);
+        newWb.setCompressTempFiles(true);
 
-        try {
-            wb = WorkbookFactory.create(fileInputStream);
-        } catch (IOException | InvalidFormatException e) {
-            e.printStackTrace();
+        ExcelSession newSession = new ExcelSession(alias, excelFilePath.trim());
+        newSession.wb = newWb;
+        newSession.sheet = newWb.createSheet("Sheet1");
+        register(newSession);
+    }
+
+    @RobotKeywordOverload
+    public void createWorkBookStreaming(String excelFilePath, int rowAccessWindowSize) throws InvalidFormatException {
+        createWorkBookStreaming(excelFilePath, rowAccessWindowSize, DEFAULT_ALIAS);
+    }
+
+    @RobotKeywordOverload
+    public void createWorkBookStreaming(String excelFilePath) throws InvalidFormatException {
+        createWorkBookStreaming(excelFilePath, SXSSFWorkbook.DEFAULT_WINDOW_SIZE, DEFAULT_ALIAS);
+    }
+
+    private List<List<String>> readRange(ExcelSession session, int firstRow, int firstColumn, int lastRow,
+                                         int lastColumn) {
+        if (lastRow < 0) {
+            lastRow = session.sheet.getLastRowNum();
+        }
+        if (lastColumn < 0) {
+            Row headerRow = session.sheet.getRow(firstRow);
+            lastColumn = headerRow == null ? -1 : headerRow.getLastCellNum() - 1;
+        }
+
+        FormulaEvaluator evaluator = session.getFormulaEvaluator();
+        List<List<String>> rows = new ArrayList<>(Math.max(lastRow - firstRow + 1, 0));
+        for (int i = firstRow; i <= lastRow; i++) {
+            session.checkNotFlushed(i);
+            Row row = session.sheet.getRow(i);
+            List<String> values = new ArrayList<>(Math.max(lastColumn - firstColumn + 1, 0));
+            for (int j = firstColumn; j <= lastColumn; j++) {
+                Cell cell = row == null ? null : row.getCell(j);
+                values.add(cell == null ? "" : session.dataFormatter.formatCellValue(cell, evaluator));
+            }
+            rows.add(values);
         }
-        sheet = wb.getSheetAt(0);
+        return rows;
     }
 
-    private void openFileToWrite() {
+    private Sheet getIndexableSheet(ExcelSession session, String sheetName) {
+        if (session.streamingReader != null) {
+            throw new IllegalStateException("Column indexes are not supported in streaming read only mode.");
+        }
+        return getSheet(session, sheetName);
+    }
 
-        try {
-            fileOutputStream = new FileOutputStream(excelFilePath);
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    private RawValueReader createRawValueReader(ExcelSession session, boolean useCachedFormulaResult) {
+        if (session.streamingReader != null) {
+            throw new IllegalStateException("Typed reads are not supported in streaming read only mode.");
         }
-        try {
-            wb.write(fileOutputStream);
-        } catch (IOException e) {
-            e.printStackTrace();
+        return new RawValueReader(session, useCachedFormulaResult);
+    }
+
+    /**
+     * The number of columns of the header row, which bounds the rows read by Get Row Values.
+     */
+    private int getColumnCount(ExcelSession session) {
+        Row headerRow = session.sheet.getRow(0);
+        return headerRow == null ? 0 : Math.max(headerRow.getLastCellNum(), 0);
+    }
+
+    private ColumnAggregate aggregateColumn(int colNumber, boolean useCachedFormulaResult, boolean countDistinct) {
+        ExcelSession session = currentSession();
+        ColumnAggregate aggregate = new ColumnAggregate(countDistinct);
+        if (session.streamingReader != null) {
+            session.streamingReader.scanColumnNumbers(session.streamingReader.getActiveSheet(), colNumber, aggregate);
+        } else {
+            session.checkNotFlushed(0);
+            aggregate.addColumn(session.sheet, colNumber,
+                    useCachedFormulaResult ? null : session.getFormulaEvaluator());
         }
-        try {
-            fileOutputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        return aggregate;
+    }
+
+    private Sheet getSheet(ExcelSession session, String sheetName) {
+        Sheet namedSheet = session.wb.getSheet(sheetName);
+        if (namedSheet == null) {
+            throw new IllegalArgumentException("No sheet is named " + sheetName + ".");
+        }
+        return namedSheet;
+    }
+
+    /**
+     * Returns the given sheet, or the active one when no sheet name is given, once it is known to be exportable. The
+     * sheet is checked before the export is created, as creating it truncates the output file. Returns null for a
+     * streaming read only session, whose sheets are exported by name.
+     */
+    private Sheet getExportedSheet(ExcelSession session, String sheetName) {
+        if (session.streamingReader != null) {
+            if (!sheetName.isEmpty() && !session.streamingReader.containsSheet(sheetName)) {
+                throw new IllegalArgumentException("No sheet is named " + sheetName + ".");
+            }
+            return null;
+        }
+        Sheet exportedSheet = sheetName.isEmpty() ? session.sheet : getSheet(session, sheetName);
+        session.checkNotFlushed(exportedSheet, 0);
+        return exportedSheet;
+    }
+
+    /**
+     * Exports the sheet returned by {@link #getExportedSheet(ExcelSession, String)} and closes the export.
+     */
+    private void exportSheet(ExcelSession session, String sheetName, Sheet exportedSheet, SheetExport sheetExport)
+            throws IOException {
+        try (SheetExport export = sheetExport) {
+            if (session.streamingReader != null) {
+                export.export(session.streamingReader,
+                        sheetName.isEmpty() ? session.streamingReader.getActiveSheet() : sheetName);
+            } else {
+                export.export(exportedSheet, session.dataFormatter, session.getFormulaEvaluator());
+            }
+        }
+    }
+
+    private int findRowNumber(ExcelSession session, Sheet indexedSheet, String key) {
+        ColumnIndex columnIndex = session.getColumnIndex(indexedSheet);
+        if (columnIndex == null) {
+            throw new IllegalStateException("No column index exists for sheet " + indexedSheet.getSheetName() +
+                    ", use Create Column Index first.");
+        }
+        Integer rowNumber = columnIndex.getRowNumber(indexedSheet, key, session.dataFormatter,
+                session.getFormulaEvaluator());
+        if (rowNumber == null) {
+            throw new IllegalArgumentException("No row of sheet " + indexedSheet.getSheetName() + " has the key " +
+                    key + ".");
         }
+        return rowNumber;
+    }
+
+    private List<Map<String, String>> toRecords(List<List<String>> rows) {
+        List<Map<String, String>> records = new ArrayList<>(Math.max(rows.size() - 1, 0));
+        if (rows.isEmpty()) {
+            return records;
+        }
+
+        List<String> header = rows.get(0);
+        for (List<String> row : rows.subList(1, rows.size())) {
+            Map<String, String> record = new LinkedHashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                record.put(header.get(i), i < row.size() ? row.get(i) : "");
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    private void setInferredCellValue(ExcelSession session, Cell cell, Object value) {
+        if (value instanceof Number) {
+            cell.setCellValue(((Number) value).doubleValue());
+            return;
+        }
+        if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+            return;
+        }
+        if (value instanceof Date) {
+            cell.setCellValue((Date) value);
+            cell.setCellStyle(session.getCellStylePool().getStyle(registry().getDatePattern()));
+            return;
+        }
+
+        String text = value == null ? "" : value.toString();
+        Date date;
+        if (text.isEmpty()) {
+            cell.setCellType(CellType.BLANK);
+        } else if (text.startsWith("=")) {
+            cell.setCellFormula(text.substring(1));
+        } else if (text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false")) {
+            cell.setCellValue(Boolean.parseBoolean(text));
+        } else if (NUMBER_PATTERN.matcher(text).matches()) {
+            cell.setCellValue(Double.parseDouble(text));
+        } else if ((date = registry().parseDate(text)) != null) {
+            cell.setCellValue(date);
+            cell.setCellStyle(session.getCellStylePool().getStyle(registry().getDatePattern()));
+        } else {
+            cell.setCellValue(text);
+        }
+    }
+
+    private List<?> toList(Object values) {
+        if (values instanceof List) {
+            return (List<?>) values;
+        }
+        if (values instanceof Object[]) {
+            return Arrays.asList((Object[]) values);
+        }
+        return Collections.singletonList(values);
+    }
+
+    private SessionRegistry registry() {
+        return threadRegistries == null ? sharedRegistry : threadRegistries.get();
+    }
+
+    private ExcelSession currentSession() {
+        ExcelSession activeSession = registry().getActiveSession();
+        if (activeSession == null) {
+            throw new IllegalStateException("No excel file is open.");
+        }
+        activeSession.awaitPendingSave();
+        return activeSession;
+    }
+
+    private void register(ExcelSession newSession) {
+        registry().register(newSession);
     }
 
 }
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import com.kbn.excel.metrics.KeywordMetrics;
+import com.kbn.excel.streaming.StreamingWorkbookReader;
+import com.kbn.excel.style.CellStylePool;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * One opened excel file together with its active sheet and the caches built for it. A session is used by one keyword
+ * at a time and is not thread safe; only its workbook may be shared, when it is opened read only.
+ */
+class ExcelSession {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    final String alias;
+    final DataFormatter dataFormatter = new DataFormatter();
+    String excelFilePath;
+    Workbook wb;
+    Sheet sheet;
+    StreamingWorkbookReader streamingReader;
+    boolean readOnly;
+    /**
+     * Whether the workbook is shared with other sessions through the workbook cache, so its formulas are read from
+     * their cached results instead of being evaluated.
+     */
+    boolean sharedWorkbook;
+    EditBatch editBatch;
+    private boolean fileBacked;
+    private Future<?> pendingSave;
+    private FormulaEvaluator formulaEvaluator;
+    private CellStylePool cellStylePool;
+    private final Map<String, ColumnIndex> columnIndexes = new HashMap<>();
+    private final Map<String, int[]> usedRanges = new HashMap<>();
+    private IncrementalXlsxWriter incrementalWriter;
+    private final Set<String> changedSheets = new HashSet<>();
+    private boolean sheetsAddedOrRemoved;
+
+    ExcelSession(String alias, String excelFilePath) {
+        this.alias = alias;
+        this.excelFilePath = excelFilePath;
+    }
+
+    FormulaEvaluator getFormulaEvaluator() {
+        if (formulaEvaluator == null) {
+            if (sharedWorkbook) {
+                formulaEvaluator = CachedResultEvaluator.INSTANCE;
+            } else if (incrementalWriter != null) {
+                formulaEvaluator = new ChangeTrackingEvaluator(wb.getCreationHelper().createFormulaEvaluator(), this);
+            } else {
+                formulaEvaluator = wb.getCreationHelper().createFormulaEvaluator();
+            }
+        }
+        return formulaEvaluator;
+    }
+
+    CellStylePool getCellStylePool() {
+        if (cellStylePool == null) {
+            cellStylePool = new CellStylePool(wb);
+        }
+        return cellStylePool;
+    }
+
+    void cellValueChanged(Cell cell) {
+        if (formulaEvaluator != null) {
+            formulaEvaluator.notifyUpdateCell(cell);
+        }
+        updateUsedRange(cell);
+    }
+
+    void cellFormulaChanged(Cell cell) {
+        if (formulaEvaluator != null) {
+            formulaEvaluator.notifySetFormula(cell);
+        }
+        updateUsedRange(cell);
+    }
+
+    void cellsChanged() {
+        if (formulaEvaluator != null) {
+            formulaEvaluator.clearAllCachedResultValues();
+        }
+        usedRanges.clear();
+    }
+
+    /**
+     * Returns the first row, first column, last row and last column of the cells of the given sheet which hold a value,
+     * or an empty array when there are none. The range is computed once by walking the existing rows and cells and is
+     * then kept up to date by the single cell writes; bulk writes drop it.
+     */
+    int[] getUsedRange(Sheet rangeSheet) {
+        int[] usedRange = usedRanges.get(rangeSheet.getSheetName());
+        if (usedRange == null) {
+            usedRange = new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE, -1, -1};
+            for (Row row : rangeSheet) {
+                for (Cell cell : row) {
+                    if (holdsValue(cell)) {
+                        extend(usedRange, cell);
+                    }
+                }
+            }
+            if (usedRange[2] < 0) {
+                usedRange = new int[0];
+            }
+            usedRanges.put(rangeSheet.getSheetName(), usedRange);
+        }
+        return usedRange.clone();
+    }
+
+    private void updateUsedRange(Cell cell) {
+        String sheetName = cell.getSheet().getSheetName();
+        int[] usedRange = usedRanges.get(sheetName);
+        if (usedRange == null) {
+            return;
+        }
+        int rowNumber = cell.getRowIndex();
+        int column = cell.getColumnIndex();
+        if (holdsValue(cell)) {
+            if (usedRange.length == 0) {
+                usedRange = new int[]{rowNumber, column, rowNumber, column};
+                usedRanges.put(sheetName, usedRange);
+            }
+            extend(usedRange, cell);
+        } else if (usedRange.length > 0 && (rowNumber == usedRange[0] || column == usedRange[1] ||
+                rowNumber == usedRange[2] || column == usedRange[3])) {
+            // A cleared cell on the border may shrink the range, which only a new walk can tell.
+            usedRanges.remove(sheetName);
+        }
+    }
+
+    private static void extend(int[] usedRange, Cell cell) {
+        usedRange[0] = Math.min(usedRange[0], cell.getRowIndex());
+        usedRange[1] = Math.min(usedRange[1], cell.getColumnIndex());
+        usedRange[2] = Math.max(usedRange[2], cell.getRowIndex());
+        usedRange[3] = Math.max(usedRange[3], cell.getColumnIndex());
+    }
+
+    private static boolean holdsValue(Cell cell) {
+        CellType cellType = cell.getCellTypeEnum();
+        return cellType != CellType.BLANK && !(cellType == CellType.STRING && cell.getStringCellValue().isEmpty());
+    }
+
+    void sheetsChanged() {
+        formulaEvaluator = null;
+        sheetsAddedOrRemoved = true;
+    }
+
+    /**
+     * Records that cells of the given sheet were written, so the next save writes the sheet again.
+     */
+    void sheetChanged(Sheet changedSheet) {
+        changedSheets.add(changedSheet.getSheetName());
+    }
+
+    ColumnIndex createColumnIndex(Sheet indexedSheet, int column) {
+        ColumnIndex columnIndex = new ColumnIndex(column);
+        columnIndexes.put(indexedSheet.getSheetName(), columnIndex);
+        return columnIndex;
+    }
+
+    ColumnIndex getColumnIndex(Sheet indexedSheet) {
+        return columnIndexes.get(indexedSheet.getSheetName());
+    }
+
+    /**
+     * Records that cells within the given columns of the sheet were written, and marks the column index of the sheet
+     * stale when its key column lies within them.
+     */
+    void columnsChanged(Sheet changedSheet, int firstColumn, int lastColumn) {
+        sheetChanged(changedSheet);
+        if (columnIndexes.isEmpty()) {
+            return;
+        }
+        ColumnIndex columnIndex = columnIndexes.get(changedSheet.getSheetName());
+        if (columnIndex != null && columnIndex.column >= firstColumn && columnIndex.column <= lastColumn) {
+            columnIndex.invalidate();
+        }
+    }
+
+    void sheetRemoved(String sheetName) {
+        columnIndexes.remove(sheetName);
+        usedRanges.remove(sheetName);
+        sheetsChanged();
+    }
+
+    void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("The excel file " + excelFilePath + " is opened read only.");
+        }
+    }
+
+    void checkNotFlushed(int rowNumber) {
+        checkNotFlushed(sheet, rowNumber);
+    }
+
+    void checkNotFlushed(Sheet checkedSheet, int rowNumber) {
+        if (checkedSheet instanceof SXSSFSheet && rowNumber <= ((SXSSFSheet) checkedSheet).getLastFlushedRowNum()) {
+            throw new IllegalStateException("Row " + rowNumber + " of sheet " + checkedSheet.getSheetName() +
+                    " has already been flushed to disk and cannot be accessed in streaming write mode.");
+        }
+    }
+
+    void openFileToRead() {
+
+        try (InputStream fileInputStream = new BufferedInputStream(new FileInputStream(excelFilePath))) {
+            wb = WorkbookFactory.create(fileInputStream);
+        } catch (IOException | InvalidFormatException e) {
+            e.printStackTrace();
+        }
+        sheet = wb.getSheetAt(0);
+        if (wb instanceof XSSFWorkbook) {
+            incrementalWriter = IncrementalXlsxWriter.create((XSSFWorkbook) wb, new File(excelFilePath));
+        }
+    }
+
+    /**
+     * Opens the file itself instead of a stream over it, so POI reads .xls files through a memory mapped
+     * NPOIFSFileSystem and .xlsx files through a random access OPCPackage. The file stays open until {@link #close()}.
+     */
+    void openFileReadOnly() throws IOException, InvalidFormatException {
+        wb = WorkbookFactory.create(new File(excelFilePath), null, true);
+        fileBacked = true;
+        readOnly = true;
+        sheet = wb.getSheetAt(0);
+    }
+
+    /**
+     * Writes the workbook into a temporary file next to the target and moves it over the target once it is complete,
+     * so a failed or interrupted save never leaves a truncated file behind.
+     * <p>
+     * An .xlsx workbook whose sheets were neither added nor removed is written incrementally: only the sheets written
+     * since the file was opened or last saved, including those where evaluating a formula changed its cached result,
+     * are serialized again, every other part is copied from that file.
+     */
+    void save() throws IOException {
+        long start = System.nanoTime();
+        File target = new File(excelFilePath).getAbsoluteFile();
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+            if (incrementalWriter == null || sheetsAddedOrRemoved || !incrementalWriter.write(temp, changedSheets)) {
+                try (OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(temp),
+                        WRITE_BUFFER_SIZE)) {
+                    wb.write(fileOutputStream);
+                }
+            }
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        changedSheets.clear();
+        sheetsAddedOrRemoved = false;
+        if (incrementalWriter != null) {
+            incrementalWriter.saved(target);
+        }
+        KeywordMetrics.getInstance().recordSave(target.getPath(), System.nanoTime() - start);
+    }
+
+    Future<?> saveAsync(ExecutorService executor) {
+        awaitPendingSave();
+        pendingSave = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                save();
+                return null;
+            }
+        });
+        return pendingSave;
+    }
+
+    /**
+     * Blocks until a save started by {@link #saveAsync(ExecutorService)} has finished, so the workbook is not read or
+     * changed while it is being written. A failed save is reported by whoever holds the returned future.
+     */
+    void awaitPendingSave() {
+        if (pendingSave == null) {
+            return;
+        }
+        try {
+            pendingSave.get();
+        } catch (ExecutionException e) {
+            // Reported through the future returned by saveAsync.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pendingSave = null;
+    }
+
+    void close() {
+        awaitPendingSave();
+        if (streamingReader != null) {
+            streamingReader.close();
+            streamingReader = null;
+        }
+        if (wb instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) wb).dispose();
+        }
+        if (fileBacked) {
+            try {
+                wb.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            fileBacked = false;
+        }
+        formulaEvaluator = null;
+        cellStylePool = null;
+        columnIndexes.clear();
+        usedRanges.clear();
+        editBatch = null;
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.model.CalculationChain;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Saves an .xlsx workbook by rewriting only the parts which changed since it was read from, or last saved to, its
+ * file: the XML of the written sheets, and the shared strings, styles and calculation chain when they grew or shrank.
+ * Every other entry of the file is copied byte for byte, still compressed, so saving a small change costs about the
+ * size of the change instead of the size of the file.
+ * <p>
+ * Only a file which is unchanged on disk and whose package still has the same parts can be saved this way, and ZIP64
+ * files are not supported; in every other case {@link #write(File, Collection)} returns false and the workbook has to
+ * be written as a whole.
+ */
+class IncrementalXlsxWriter {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int DEFLATED = 8;
+    private static final int VERSION_NEEDED = 20;
+
+    private static final Method SHEET_WRITE_METHOD = findSheetWriteMethod();
+
+    private final XSSFWorkbook workbook;
+    private File sourceFile;
+    private long sourceLength;
+    private long sourceLastModified;
+    private int[] sharedStringCounts;
+    private int[] styleCounts;
+    private int calculationChainSize;
+
+    private IncrementalXlsxWriter(XSSFWorkbook workbook) {
+        this.workbook = workbook;
+    }
+
+    /**
+     * Creates a writer for the workbook which was read from the given file, or returns null when the parts of the
+     * workbook can't be written one by one.
+     */
+    static IncrementalXlsxWriter create(XSSFWorkbook workbook, File sourceFile) {
+        if (SHEET_WRITE_METHOD == null) {
+            return null;
+        }
+        IncrementalXlsxWriter writer = new IncrementalXlsxWriter(workbook);
+        writer.saved(sourceFile);
+        return writer;
+    }
+
+    /**
+     * Records that the workbook as it is now has been written to the given file, which the next save copies from.
+     */
+    void saved(File file) {
+        sourceFile = file.getAbsoluteFile();
+        sourceLength = sourceFile.length();
+        sourceLastModified = sourceFile.lastModified();
+        sharedStringCounts = countSharedStrings();
+        styleCounts = countStyles();
+        calculationChainSize = countCalculationChain();
+    }
+
+    /**
+     * Writes the workbook into the target file, taking the given sheets and the changed workbook parts from memory
+     * and every other part from the file last saved. Returns false without writing anything when that file or the
+     * package changed in a way which needs the whole workbook to be written.
+     */
+    boolean write(File target, Collection<String> changedSheetNames) throws IOException {
+        if (sourceFile.length() != sourceLength || sourceFile.lastModified() != sourceLastModified) {
+            return false;
+        }
+
+        Map<String, PartWriter> changedParts = new LinkedHashMap<>();
+        for (String sheetName : changedSheetNames) {
+            XSSFSheet sheet = workbook.getSheet(sheetName);
+            if (sheet == null) {
+                return false;
+            }
+            changedParts.put(entryName(sheet.getPackagePart()), new SheetWriter(sheet));
+        }
+        final SharedStringsTable sharedStrings = workbook.getSharedStringSource();
+        if (!Arrays.equals(sharedStringCounts, countSharedStrings())) {
+            changedParts.put(entryName(sharedStrings.getPackagePart()), new PartWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    sharedStrings.writeTo(out);
+                }
+            });
+        }
+        final StylesTable styles = workbook.getStylesSource();
+        if (!Arrays.equals(styleCounts, countStyles())) {
+            changedParts.put(entryName(styles.getPackagePart()), new PartWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    styles.writeTo(out);
+                }
+            });
+        }
+        int newCalculationChainSize = countCalculationChain();
+        if (newCalculationChainSize != calculationChainSize) {
+            if (newCalculationChainSize <= 0) {
+                // Saving the whole workbook drops an emptied calculation chain together with its relationship.
+                return false;
+            }
+            final CalculationChain calculationChain = workbook.getCalculationChain();
+            changedParts.put(entryName(calculationChain.getPackagePart()), new PartWriter() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    calculationChain.writeTo(out);
+                }
+            });
+        }
+
+        try (FileChannel source = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ)) {
+            List<ZipEntryRecord> entries = readCentralDirectory(source);
+            if (entries == null || !containsEveryPart(entries) || !containsAll(entries, changedParts.keySet())) {
+                return false;
+            }
+            try (FileOutputStream fileOutputStream = new FileOutputStream(target)) {
+                new PackageCopy(source, fileOutputStream).write(entries, changedParts);
+            }
+        }
+        return true;
+    }
+
+    private int[] countSharedStrings() {
+        SharedStringsTable sharedStrings = workbook.getSharedStringSource();
+        return sharedStrings == null ? new int[0] :
+                new int[]{sharedStrings.getCount(), sharedStrings.getUniqueCount()};
+    }
+
+    private int[] countStyles() {
+        StylesTable styles = workbook.getStylesSource();
+        return new int[]{styles.getNumCellStyles(), styles.getNumDataFormats(), styles.getFonts().size(),
+                styles.getFills().size(), styles.getBorders().size()};
+    }
+
+    private int countCalculationChain() {
+        CalculationChain calculationChain = workbook.getCalculationChain();
+        return calculationChain == null ? -1 : calculationChain.getCTCalcChain().sizeOfCArray();
+    }
+
+    private boolean containsEveryPart(List<ZipEntryRecord> entries) {
+        try {
+            return containsAll(entries, partNames(workbook.getPackage().getParts()));
+        } catch (InvalidFormatException e) {
+            return false;
+        }
+    }
+
+    private static List<String> partNames(List<PackagePart> parts) {
+        List<String> names = new ArrayList<>(parts.size());
+        for (PackagePart part : parts) {
+            names.add(entryName(part));
+        }
+        return names;
+    }
+
+    private static boolean containsAll(List<ZipEntryRecord> entries, Collection<String> names) {
+        Set<String> entryNames = new HashSet<>();
+        for (ZipEntryRecord entry : entries) {
+            entryNames.add(entry.name);
+        }
+        return entryNames.containsAll(names);
+    }
+
+    private static String entryName(PackagePart part) {
+        return part.getPartName().getName().substring(1);
+    }
+
+    /**
+     * Reads the entries of the central directory in their order, each with the length of its local header, data and
+     * data descriptor taken as the distance to the entry stored after it. Returns null for ZIP64 files.
+     */
+    private static List<ZipEntryRecord> readCentralDirectory(FileChannel source) throws IOException {
+        long size = source.size();
+        int tailSize = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(source, size - tailSize, tailSize);
+        int end = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("The excel file is not a valid ZIP file.");
+        }
+        if (end >= 20 && tail.getInt(end - 20) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+            return null;
+        }
+
+        int entryCount = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(end + 16) & ZIP64_MAGIC;
+        if (entryCount == 0xFFFF || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            return null;
+        }
+
+        ByteBuffer directory = read(source, directoryOffset, (int) directorySize);
+        List<ZipEntryRecord> entries = new ArrayList<>(entryCount);
+        int position = 0;
+        for (int i = 0; i < entryCount; i++) {
+            if (directory.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                throw new IOException("The central directory of the excel file is corrupt.");
+            }
+            int recordSize = CENTRAL_DIRECTORY_HEADER_SIZE + (directory.getShort(position + 28) & 0xFFFF) +
+                    (directory.getShort(position + 30) & 0xFFFF) + (directory.getShort(position + 32) & 0xFFFF);
+            ZipEntryRecord entry = new ZipEntryRecord(Arrays.copyOfRange(directory.array(), position,
+                    position + recordSize));
+            if (entry.compressedSize() == ZIP64_MAGIC || entry.size() == ZIP64_MAGIC ||
+                    entry.localHeaderOffset() == ZIP64_MAGIC) {
+                return null;
+            }
+            entries.add(entry);
+            position += recordSize;
+        }
+
+        List<ZipEntryRecord> stored = new ArrayList<>(entries);
+        Collections.sort(stored, new Comparator<ZipEntryRecord>() {
+            @Override
+            public int compare(ZipEntryRecord first, ZipEntryRecord second) {
+                return Long.compare(first.localHeaderOffset(), second.localHeaderOffset());
+            }
+        });
+        for (int i = 0; i < stored.size(); i++) {
+            ZipEntryRecord entry = stored.get(i);
+            long next = i + 1 < stored.size() ? stored.get(i + 1).localHeaderOffset() : directoryOffset;
+            entry.storedLength = next - entry.localHeaderOffset();
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the excel file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Method findSheetWriteMethod() {
+        try {
+            Method method = XSSFSheet.class.getDeclaredMethod("write", OutputStream.class);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private interface PartWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private static class SheetWriter implements PartWriter {
+
+        private final XSSFSheet sheet;
+
+        SheetWriter(XSSFSheet sheet) {
+            this.sheet = sheet;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            try {
+                SHEET_WRITE_METHOD.invoke(sheet, out);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException("Writing sheet " + sheet.getSheetName() + " failed.", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * The central directory record of one ZIP entry, together with the length the entry takes in the file.
+     */
+    private static class ZipEntryRecord {
+
+        final byte[] record;
+        final ByteBuffer fields;
+        final String name;
+        long storedLength;
+
+        ZipEntryRecord(byte[] record) {
+            this.record = record;
+            this.fields = ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN);
+            this.name = new String(record, CENTRAL_DIRECTORY_HEADER_SIZE, fields.getShort(28) & 0xFFFF,
+                    StandardCharsets.UTF_8);
+        }
+
+        long compressedSize() {
+            return fields.getInt(20) & ZIP64_MAGIC;
+        }
+
+        long size() {
+            return fields.getInt(24) & ZIP64_MAGIC;
+        }
+
+        long localHeaderOffset() {
+            return fields.getInt(42) & ZIP64_MAGIC;
+        }
+    }
+
+    /**
+     * Writes one new package: the copied entries are transferred from the source channel straight into the target
+     * file, the changed ones are deflated and followed by a data descriptor, as their sizes are only known afterwards.
+     */
+    private static class PackageCopy {
+
+        private final FileChannel source;
+        private final FileChannel targetChannel;
+        private final CountingOutputStream out;
+        private final ByteBuffer header = ByteBuffer.allocate(CENTRAL_DIRECTORY_HEADER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        PackageCopy(FileChannel source, FileOutputStream target) {
+            this.source = source;
+            this.targetChannel = target.getChannel();
+            this.out = new CountingOutputStream(new BufferedOutputStream(target, WRITE_BUFFER_SIZE));
+        }
+
+        void write(List<ZipEntryRecord> entries, Map<String, PartWriter> changedParts) throws IOException {
+            List<byte[]> directory = new ArrayList<>(entries.size());
+            for (ZipEntryRecord entry : entries) {
+                PartWriter partWriter = changedParts.get(entry.name);
+                directory.add(partWriter == null ? copyEntry(entry) : writeEntry(entry, partWriter));
+            }
+
+            long directoryOffset = out.count;
+            for (byte[] record : directory) {
+                out.write(record);
+            }
+            long directorySize = out.count - directoryOffset;
+            if (out.count > ZIP64_MAGIC) {
+                throw new IOException("The saved excel file would need ZIP64, which is not supported.");
+            }
+            header.clear();
+            header.putInt(END_OF_CENTRAL_DIRECTORY).putShort((short) 0).putShort((short) 0)
+                    .putShort((short) directory.size()).putShort((short) directory.size())
+                    .putInt((int) directorySize).putInt((int) directoryOffset).putShort((short) 0);
+            out.write(header.array(), 0, header.position());
+            out.flush();
+        }
+
+        private byte[] copyEntry(ZipEntryRecord entry) throws IOException {
+            long offset = out.count;
+            out.flush();
+            long position = entry.localHeaderOffset();
+            long remaining = entry.storedLength;
+            while (remaining > 0) {
+                long transferred = source.transferTo(position, remaining, targetChannel);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of the excel file.");
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+            out.count += entry.storedLength;
+
+            byte[] record = entry.record.clone();
+            ByteBuffer.wrap(record).order(ByteOrder.LITTLE_ENDIAN).putInt(42, (int) offset);
+            return record;
+        }
+
+        private byte[] writeEntry(ZipEntryRecord entry, PartWriter partWriter) throws IOException {
+            long offset = out.count;
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            short time = entry.fields.getShort(12);
+            short date = entry.fields.getShort(14);
+            short flags = (short) (DATA_DESCRIPTOR_FLAG | UTF8_FLAG);
+
+            header.clear();
+            header.putInt(LOCAL_FILE_HEADER).putShort((short) VERSION_NEEDED).putShort(flags)
+                    .putShort((short) DEFLATED).putShort(time).putShort(date).putInt(0).putInt(0).putInt(0)
+                    .putShort((short) name.length).putShort((short) 0);
+            out.write(header.array(), 0, header.position());
+            out.write(name);
+
+            long dataOffset = out.count;
+            CRC32 crc = new CRC32();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                DeflaterOutputStream compressed = new DeflaterOutputStream(out, deflater, WRITE_BUFFER_SIZE);
+                CountingOutputStream uncompressed = new CountingOutputStream(compressed);
+                partWriter.write(new CheckedOutputStream(uncompressed, crc));
+                compressed.finish();
+                long compressedSize = out.count - dataOffset;
+                if (uncompressed.count > ZIP64_MAGIC || compressedSize > ZIP64_MAGIC) {
+                    throw new IOException("The part " + entry.name + " would need ZIP64, which is not supported.");
+                }
+
+                header.clear();
+                header.putInt(DATA_DESCRIPTOR).putInt((int) crc.getValue()).putInt((int) compressedSize)
+                        .putInt((int) uncompressed.count);
+                out.write(header.array(), 0, header.position());
+
+                header.clear();
+                header.putInt(CENTRAL_DIRECTORY_HEADER).putShort(entry.fields.getShort(4))
+                        .putShort((short) VERSION_NEEDED).putShort(flags).putShort((short) DEFLATED)
+                        .putShort(time).putShort(date).putInt((int) crc.getValue()).putInt((int) compressedSize)
+                        .putInt((int) uncompressed.count).putShort((short) name.length).putShort((short) 0)
+                        .putShort((short) 0).putShort((short) 0).putShort(entry.fields.getShort(36))
+                        .putInt(entry.fields.getInt(38)).putInt((int) offset);
+                byte[] record = Arrays.copyOf(header.array(), CENTRAL_DIRECTORY_HEADER_SIZE + name.length);
+                System.arraycopy(name, 0, record, CENTRAL_DIRECTORY_HEADER_SIZE, name.length);
+                return record;
+            } finally {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written through it and never closes the stream below, in case a part writer closes its stream.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Reads cell values in their own type instead of formatting them: whole numbers as long, other numbers as double,
+ * booleans as boolean, text as string and date formatted numbers as ISO 8601 dates. Blank cells read as null and error
+ * cells as their error text, e.g. #DIV/0!.
+ * <p>
+ * Formulas are evaluated like Get Cell Data does, or, when the cached formula result is used, read from the result
+ * stored in the cell by the last evaluation or by the program which saved the file.
+ */
+class RawValueReader {
+
+    /**
+     * Whole numbers beyond this magnitude can't be told apart from their neighbours as double.
+     */
+    private static final double MAX_EXACT_LONG = 9007199254740992d;
+
+    private final FormulaEvaluator evaluator;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    private final Calendar calendar = Calendar.getInstance();
+
+    RawValueReader(ExcelSession session, boolean useCachedFormulaResult) {
+        this.evaluator = useCachedFormulaResult ? null : session.getFormulaEvaluator();
+    }
+
+    Object read(Cell cell) {
+        if (cell == null) {
+            return null;
+        }
+
+        switch (getValueType(cell)) {
+            case NUMERIC:
+                return DateUtil.isCellDateFormatted(cell) ? formatDate(cell.getDateCellValue()) :
+                        toNumber(cell.getNumericCellValue());
+            case STRING:
+                return cell.getStringCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case ERROR:
+                return FormulaError.forInt(cell.getErrorCellValue()).getString();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the number the cell holds, or null when it holds anything else, dates included.
+     */
+    Number readNumber(Cell cell) {
+        if (getValueType(cell) == CellType.NUMERIC && !DateUtil.isCellDateFormatted(cell)) {
+            return toNumber(cell.getNumericCellValue());
+        }
+        return null;
+    }
+
+    private CellType getValueType(Cell cell) {
+        CellType cellType = cell.getCellTypeEnum();
+        if (cellType == CellType.FORMULA) {
+            cellType = evaluator == null ? cell.getCachedFormulaResultTypeEnum() :
+                    evaluator.evaluateFormulaCellEnum(cell);
+        }
+        return cellType;
+    }
+
+    static Number toNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) <= MAX_EXACT_LONG) {
+            return (long) value;
+        }
+        return value;
+    }
+
+    private String formatDate(Date date) {
+        calendar.setTime(date);
+        boolean hasTime = calendar.get(Calendar.HOUR_OF_DAY) != 0 || calendar.get(Calendar.MINUTE) != 0 ||
+                calendar.get(Calendar.SECOND) != 0;
+        return hasTime ? dateTimeFormat.format(date) : dateFormat.format(date);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The excel files opened through the keywords, keyed by their alias, together with the active one, the saves pending
+ * under their handles and the date format. The registry is safe to use from several threads: Robot Framework runs a
+ * keyword on a thread of its own when a timeout is set, so consecutive keywords of one test may well be called from
+ * different threads.
+ */
+class SessionRegistry {
+
+    private final ConcurrentMap<String, ExcelSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Future<?>> pendingSaves = new ConcurrentHashMap<>();
+    private final AtomicInteger saveCounter = new AtomicInteger();
+    private volatile ExcelSession activeSession;
+    private volatile DateFormat dateFormat;
+
+    SessionRegistry(String datePattern) {
+        this.dateFormat = new DateFormat(datePattern);
+    }
+
+    /**
+     * Returns the active session, or null when no excel file is open.
+     */
+    ExcelSession getActiveSession() {
+        return activeSession;
+    }
+
+    /**
+     * Keeps the session under its alias and makes it the active one. A session kept before under the same alias is
+     * closed.
+     */
+    synchronized void register(ExcelSession newSession) {
+        ExcelSession previous = sessions.put(newSession.alias, newSession);
+        if (previous != null) {
+            previous.close();
+        }
+        activeSession = newSession;
+    }
+
+    synchronized void activate(String alias) {
+        activeSession = getSession(alias);
+    }
+
+    /**
+     * Closes the session kept under the given alias, which is no longer active afterwards.
+     */
+    synchronized void close(String alias) {
+        ExcelSession closedSession = getSession(alias);
+        sessions.remove(alias);
+        closedSession.close();
+        if (closedSession == activeSession) {
+            activeSession = null;
+        }
+    }
+
+    private ExcelSession getSession(String alias) {
+        ExcelSession session = sessions.get(alias);
+        if (session == null) {
+            throw new IllegalArgumentException("No excel file is opened with alias " + alias + ".");
+        }
+        return session;
+    }
+
+    /**
+     * Keeps the given save under a new handle and returns the handle.
+     */
+    String addPendingSave(Future<?> pendingSave) {
+        String handle = "save-" + saveCounter.incrementAndGet();
+        pendingSaves.put(handle, pendingSave);
+        return handle;
+    }
+
+    /**
+     * Removes the save kept under the given handle and returns it, or null when no save is pending with it.
+     */
+    Future<?> removePendingSave(String handle) {
+        return pendingSaves.remove(handle);
+    }
+
+    List<String> getPendingSaveHandles() {
+        return new ArrayList<>(pendingSaves.keySet());
+    }
+
+    String getDatePattern() {
+        return dateFormat.pattern;
+    }
+
+    void setDatePattern(String pattern) {
+        dateFormat = new DateFormat(pattern);
+    }
+
+    /**
+     * Returns a formatter of the date format which the caller may use on its own.
+     */
+    SimpleDateFormat createDateFormatter() {
+        return dateFormat.createFormatter();
+    }
+
+    /**
+     * Parses the whole text as a date of the date format.
+     *
+     * @throws IllegalArgumentException if the text is not such a date
+     */
+    Date toDate(String text) {
+        DateFormat format = dateFormat;
+        Date date = parseDate(format, text);
+        if (date == null) {
+            throw new IllegalArgumentException("The date " + text + " does not match the date format " +
+                    format.pattern + ".");
+        }
+        return date;
+    }
+
+    /**
+     * Parses the whole text as a date of the date format, or returns null when it is not such a date.
+     */
+    Date parseDate(String text) {
+        return parseDate(dateFormat, text);
+    }
+
+    private static Date parseDate(DateFormat format, String text) {
+        ParsePosition position = new ParsePosition(0);
+        Date date;
+        synchronized (format.formatter) {
+            date = format.formatter.parse(text, position);
+        }
+        return position.getIndex() == text.length() ? date : null;
+    }
+
+    /**
+     * A date pattern with its strict formatter, replaced as a whole by Set Date Format.
+     */
+    private static class DateFormat {
+
+        final String pattern;
+        final SimpleDateFormat formatter;
+
+        DateFormat(String pattern) {
+            this.pattern = pattern;
+            this.formatter = createFormatter();
+        }
+
+        SimpleDateFormat createFormatter() {
+            SimpleDateFormat formatter = new SimpleDateFormat(pattern);
+            formatter.setLenient(false);
+            return formatter;
+        }
+    }
+}
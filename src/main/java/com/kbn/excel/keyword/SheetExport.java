@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import com.kbn.excel.streaming.StreamingWorkbookReader;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes the rows of a sheet into a UTF-8 text file as they are read, so only one row is held in memory. The cells are
+ * formatted as Get Cell Data formats them. Missing rows are written as blank rows and every row is padded with empty
+ * values to the width of the sheet's first row, so the lines line up with the rows and columns of the sheet.
+ */
+abstract class SheetExport implements Closeable {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    final Writer writer;
+    private int width = -1;
+    private int nextRowNumber;
+
+    SheetExport(String outputFilePath) throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFilePath),
+                StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+    }
+
+    void export(Sheet sheet, DataFormatter formatter, FormulaEvaluator evaluator) throws IOException {
+        List<String> values = new ArrayList<>();
+        for (Row row : sheet) {
+            values.clear();
+            for (Cell cell : row) {
+                while (values.size() < cell.getColumnIndex()) {
+                    values.add("");
+                }
+                values.add(formatter.formatCellValue(cell, evaluator));
+            }
+            addRow(row.getRowNum(), values);
+        }
+    }
+
+    void export(StreamingWorkbookReader reader, String sheetName) {
+        reader.scanRows(sheetName, new StreamingWorkbookReader.RowVisitor() {
+            @Override
+            public void visitRow(int rowNumber, List<String> values) {
+                try {
+                    addRow(rowNumber, values);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to write the exported rows.", e);
+                }
+            }
+        });
+    }
+
+    private void addRow(int rowNumber, List<String> values) throws IOException {
+        if (width < 0) {
+            width = values.size();
+        }
+        for (; nextRowNumber < rowNumber; nextRowNumber++) {
+            writeRow(Collections.nCopies(width, ""));
+        }
+        while (values.size() < width) {
+            values.add("");
+        }
+        writeRow(values);
+        nextRowNumber = rowNumber + 1;
+    }
+
+    abstract void writeRow(List<String> values) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Writes RFC 4180 CSV: values holding a comma, a quote or a line break are quoted and the lines end with CRLF.
+     */
+    static class Csv extends SheetExport {
+
+        Csv(String outputFilePath) throws IOException {
+            super(outputFilePath);
+        }
+
+        @Override
+        void writeRow(List<String> values) throws IOException {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeValue(values.get(i));
+            }
+            writer.write("\r\n");
+        }
+
+        private void writeValue(String value) throws IOException {
+            boolean quoted = false;
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quoted) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Writes one JSON array of values per row, or, with a header row, one JSON object per row after the first, keyed
+     * by the values of the first row like Get Range Values does.
+     */
+    static class JsonLines extends SheetExport {
+        private final boolean useHeaderRow;
+        private List<String> header;
+
+        JsonLines(String outputFilePath, boolean useHeaderRow) throws IOException {
+            super(outputFilePath);
+            this.useHeaderRow = useHeaderRow;
+        }
+
+        @Override
+        void writeRow(List<String> values) throws IOException {
+            if (!useHeaderRow) {
+                writer.write('[');
+                for (int i = 0; i < values.size(); i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writeString(values.get(i));
+                }
+                writer.write("]\n");
+                return;
+            }
+
+            if (header == null) {
+                header = new ArrayList<>(values);
+                return;
+            }
+            writer.write('{');
+            for (int i = 0; i < header.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeString(header.get(i));
+                writer.write(':');
+                writeString(values.get(i));
+            }
+            writer.write("}\n");
+        }
+
+        private void writeString(String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else if (c < 0x20) {
+                    writer.write(String.format("\\u%04x", (int) c));
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write('"');
+        }
+    }
+}
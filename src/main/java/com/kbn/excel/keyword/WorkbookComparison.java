@@ -0,0 +1,507 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.keyword;
+
+import com.kbn.excel.streaming.StreamingWorkbookReader;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.FormulaError;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the sheets of an expected and an actual workbook file cell by cell, returning at most a given number of
+ * differences in sheet, row and column order.
+ * <p>
+ * Both sheets of a pair are walked once, side by side, in row order. Each row carries a 64 bit hash of its formatted
+ * values, and only rows whose hashes differ are compared cell by cell. The sheet pairs are compared in parallel. An
+ * .xlsx file is read with the streaming reader, one thread per compared sheet parsing its XML into a small queue of
+ * rows, so the heap used doesn't grow with the size of the files. An .xls file is read into memory.
+ * <p>
+ * Formulas are compared by the results stored in the files; missing cells and rows equal empty ones.
+ */
+class WorkbookComparison {
+
+    private static final ExecutorService COMPARE_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("jyexcel-compare-"));
+    private static final ExecutorService READ_EXECUTOR = Executors.newCachedThreadPool(
+            new DaemonThreadFactory("jyexcel-compare-reader-"));
+    private static final int ROW_QUEUE_CAPACITY = 256;
+    private static final SheetRow EMPTY_ROW = new SheetRow(-1, Collections.<String>emptyList());
+
+    private final int maxDifferences;
+    private volatile boolean complete;
+
+    WorkbookComparison(int maxDifferences) {
+        if (maxDifferences < 1) {
+            throw new IllegalArgumentException("At least one difference has to be reported.");
+        }
+        this.maxDifferences = maxDifferences;
+    }
+
+    /**
+     * Compares every sheet of the two files by name. A sheet found in only one of the files is reported as a
+     * difference without a row and column, holding its name as the expected or actual value.
+     */
+    List<Map<String, Object>> compareWorkbooks(String expectedFilePath, String actualFilePath)
+            throws IOException, InvalidFormatException {
+        try (RowSource expected = open(expectedFilePath); RowSource actual = open(actualFilePath)) {
+            List<String> actualSheetNames = actual.getSheetNames();
+            List<Callable<List<Map<String, Object>>>> comparisons = new ArrayList<>();
+            for (String sheetName : expected.getSheetNames()) {
+                comparisons.add(actualSheetNames.contains(sheetName) ?
+                        compareSheet(expected, actual, sheetName) : sheetDifference(sheetName, sheetName, null));
+            }
+            for (String sheetName : actualSheetNames) {
+                if (!expected.getSheetNames().contains(sheetName)) {
+                    comparisons.add(sheetDifference(sheetName, null, sheetName));
+                }
+            }
+            return run(comparisons);
+        }
+    }
+
+    List<Map<String, Object>> compareSheets(String expectedFilePath, String actualFilePath, String sheetName)
+            throws IOException, InvalidFormatException {
+        try (RowSource expected = open(expectedFilePath); RowSource actual = open(actualFilePath)) {
+            for (RowSource source : Arrays.asList(expected, actual)) {
+                if (!source.getSheetNames().contains(sheetName)) {
+                    throw new IllegalArgumentException("No sheet is named " + sheetName + " in " + source + ".");
+                }
+            }
+            return run(Collections.singletonList(compareSheet(expected, actual, sheetName)));
+        }
+    }
+
+    private static RowSource open(String excelFilePath) throws IOException, InvalidFormatException {
+        if (excelFilePath.endsWith(".xlsx")) {
+            return new StreamingRowSource(excelFilePath);
+        }
+        return new WorkbookRowSource(excelFilePath);
+    }
+
+    /**
+     * Runs the comparisons in parallel and joins their differences in order, stopping the comparisons still running
+     * as soon as the ones before them found enough differences.
+     */
+    private List<Map<String, Object>> run(List<Callable<List<Map<String, Object>>>> comparisons) throws IOException {
+        List<Future<List<Map<String, Object>>>> futures = new ArrayList<>(comparisons.size());
+        for (Callable<List<Map<String, Object>>> comparison : comparisons) {
+            futures.add(COMPARE_EXECUTOR.submit(comparison));
+        }
+
+        List<Map<String, Object>> differences = new ArrayList<>();
+        try {
+            for (Future<List<Map<String, Object>>> future : futures) {
+                if (complete) {
+                    break;
+                }
+                differences.addAll(future.get());
+                complete = differences.size() >= maxDifferences;
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Comparing the workbooks failed.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while comparing the workbooks.", e);
+        } finally {
+            complete = true;
+            awaitAll(futures);
+        }
+        return differences.size() > maxDifferences ? new ArrayList<>(differences.subList(0, maxDifferences)) :
+                differences;
+    }
+
+    /**
+     * Waits for the comparisons to stop before their sources are closed.
+     */
+    private static void awaitAll(List<Future<List<Map<String, Object>>>> futures) {
+        for (Future<List<Map<String, Object>>> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // Only the first failure is reported.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Callable<List<Map<String, Object>>> sheetDifference(final String sheetName, final String expected,
+                                                                final String actual) {
+        return new Callable<List<Map<String, Object>>>() {
+            @Override
+            public List<Map<String, Object>> call() {
+                return Collections.singletonList(difference(sheetName, null, null, expected, actual));
+            }
+        };
+    }
+
+    private Callable<List<Map<String, Object>>> compareSheet(final RowSource expected, final RowSource actual,
+                                                             final String sheetName) {
+        return new Callable<List<Map<String, Object>>>() {
+            @Override
+            public List<Map<String, Object>> call() throws InterruptedException {
+                List<Map<String, Object>> differences = new ArrayList<>();
+                if (complete) {
+                    return differences;
+                }
+                try (RowStream expectedRows = expected.openSheet(sheetName);
+                     RowStream actualRows = actual.openSheet(sheetName)) {
+                    SheetRow expectedRow = expectedRows.next();
+                    SheetRow actualRow = actualRows.next();
+                    while ((expectedRow != null || actualRow != null) && !complete &&
+                            differences.size() < maxDifferences) {
+                        int expectedNumber = expectedRow == null ? Integer.MAX_VALUE : expectedRow.rowNumber;
+                        int actualNumber = actualRow == null ? Integer.MAX_VALUE : actualRow.rowNumber;
+                        int rowNumber = Math.min(expectedNumber, actualNumber);
+                        SheetRow expectedValues = expectedNumber == rowNumber ? expectedRow : EMPTY_ROW;
+                        SheetRow actualValues = actualNumber == rowNumber ? actualRow : EMPTY_ROW;
+                        if (expectedValues.hash != actualValues.hash) {
+                            compareRow(sheetName, rowNumber, expectedValues.values, actualValues.values,
+                                    differences);
+                        }
+                        if (expectedNumber == rowNumber) {
+                            expectedRow = expectedRows.next();
+                        }
+                        if (actualNumber == rowNumber) {
+                            actualRow = actualRows.next();
+                        }
+                    }
+                }
+                return differences;
+            }
+        };
+    }
+
+    private void compareRow(String sheetName, int rowNumber, List<String> expected, List<String> actual,
+                            List<Map<String, Object>> differences) {
+        int width = Math.max(expected.size(), actual.size());
+        for (int column = 0; column < width && differences.size() < maxDifferences; column++) {
+            String expectedValue = column < expected.size() ? expected.get(column) : "";
+            String actualValue = column < actual.size() ? actual.get(column) : "";
+            if (!expectedValue.equals(actualValue)) {
+                differences.add(difference(sheetName, rowNumber, column, expectedValue, actualValue));
+            }
+        }
+    }
+
+    private static Map<String, Object> difference(String sheetName, Integer rowNumber, Integer column,
+                                                  String expected, String actual) {
+        Map<String, Object> difference = new LinkedHashMap<>();
+        difference.put("sheet", sheetName);
+        difference.put("row", rowNumber);
+        difference.put("column", column);
+        difference.put("expected", expected);
+        difference.put("actual", actual);
+        return difference;
+    }
+
+    /**
+     * The formatted values of a row, up to its last non empty one, with their hash.
+     */
+    private static class SheetRow {
+        final int rowNumber;
+        final List<String> values;
+        final long hash;
+
+        SheetRow(int rowNumber, List<String> values) {
+            int width = values.size();
+            while (width > 0 && values.get(width - 1).isEmpty()) {
+                width--;
+            }
+            this.rowNumber = rowNumber;
+            this.values = new ArrayList<>(values.subList(0, width));
+            this.hash = hash(this.values);
+        }
+
+        /**
+         * FNV-1a over the characters of the values, each value being terminated by a unit separator.
+         */
+        private static long hash(List<String> values) {
+            long hash = 0xcbf29ce484222325L;
+            for (String value : values) {
+                for (int i = 0; i < value.length(); i++) {
+                    hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+                }
+                hash = (hash ^ 0x1f) * 0x100000001b3L;
+            }
+            return hash;
+        }
+    }
+
+    private interface RowSource extends Closeable {
+
+        List<String> getSheetNames();
+
+        /**
+         * Returns the rows of the given sheet in order. Several sheets of a source may be read at the same time.
+         */
+        RowStream openSheet(String sheetName);
+    }
+
+    private interface RowStream extends AutoCloseable {
+
+        /**
+         * Returns the next row, or null after the last one.
+         */
+        SheetRow next() throws InterruptedException;
+
+        @Override
+        void close();
+    }
+
+    private static class StreamingRowSource implements RowSource {
+        private final String excelFilePath;
+        private final StreamingWorkbookReader reader;
+
+        StreamingRowSource(String excelFilePath) throws IOException {
+            this.excelFilePath = excelFilePath;
+            this.reader = new StreamingWorkbookReader(excelFilePath);
+        }
+
+        @Override
+        public List<String> getSheetNames() {
+            return Arrays.asList(reader.getSheetNames());
+        }
+
+        @Override
+        public RowStream openSheet(String sheetName) {
+            return new StreamingRowStream(reader, sheetName);
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+        }
+
+        @Override
+        public String toString() {
+            return excelFilePath;
+        }
+    }
+
+    /**
+     * Hands the rows parsed by a reader thread over through a bounded queue, which blocks the reader while the
+     * comparison is behind. Closing the stream interrupts the reader and waits until it has stopped.
+     */
+    private static class StreamingRowStream implements RowStream {
+        private static final SheetRow END = new SheetRow(-1, Collections.<String>emptyList());
+
+        private final BlockingQueue<SheetRow> rows = new ArrayBlockingQueue<>(ROW_QUEUE_CAPACITY);
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final Object lock = new Object();
+        private Thread readerThread;
+        private boolean closed;
+        private volatile RuntimeException failure;
+        private boolean ended;
+
+        StreamingRowStream(final StreamingWorkbookReader reader, final String sheetName) {
+            READ_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronized (lock) {
+                            if (closed) {
+                                return;
+                            }
+                            readerThread = Thread.currentThread();
+                        }
+                        read(reader, sheetName);
+                    } finally {
+                        synchronized (lock) {
+                            readerThread = null;
+                        }
+                        Thread.interrupted();
+                        finished.countDown();
+                    }
+                }
+            });
+        }
+
+        private void read(StreamingWorkbookReader reader, String sheetName) {
+            try {
+                reader.scanRows(sheetName, new StreamingWorkbookReader.RowVisitor() {
+                    @Override
+                    public void visitRow(int rowNumber, List<String> values) {
+                        put(new SheetRow(rowNumber, values));
+                    }
+                });
+                put(END);
+            } catch (CancellationException e) {
+                // The comparison stopped reading.
+            } catch (RuntimeException e) {
+                failure = e;
+                try {
+                    rows.put(END);
+                } catch (InterruptedException interrupted) {
+                    // The comparison stopped reading.
+                }
+            }
+        }
+
+        private void put(SheetRow row) {
+            try {
+                rows.put(row);
+            } catch (InterruptedException e) {
+                throw new CancellationException();
+            }
+        }
+
+        @Override
+        public SheetRow next() throws InterruptedException {
+            if (ended) {
+                return null;
+            }
+            SheetRow row = rows.take();
+            if (row == END) {
+                ended = true;
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            }
+            return row;
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                closed = true;
+                if (readerThread != null) {
+                    readerThread.interrupt();
+                }
+            }
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                // The reader stops on its own; keep the interrupt for the caller.
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class WorkbookRowSource implements RowSource {
+        private final String excelFilePath;
+        private final Workbook workbook;
+
+        WorkbookRowSource(String excelFilePath) throws IOException, InvalidFormatException {
+            this.excelFilePath = excelFilePath;
+            this.workbook = WorkbookFactory.create(new File(excelFilePath), null, true);
+        }
+
+        @Override
+        public List<String> getSheetNames() {
+            List<String> sheetNames = new ArrayList<>();
+            for (Sheet sheet : workbook) {
+                sheetNames.add(sheet.getSheetName());
+            }
+            return sheetNames;
+        }
+
+        @Override
+        public RowStream openSheet(String sheetName) {
+            final Iterator<Row> rows = workbook.getSheet(sheetName).rowIterator();
+            final DataFormatter formatter = new DataFormatter();
+            return new RowStream() {
+                private final List<String> values = new ArrayList<>();
+
+                @Override
+                public SheetRow next() {
+                    if (!rows.hasNext()) {
+                        return null;
+                    }
+                    Row row = rows.next();
+                    values.clear();
+                    for (Cell cell : row) {
+                        while (values.size() < cell.getColumnIndex()) {
+                            values.add("");
+                        }
+                        values.add(formatStoredValue(cell, formatter));
+                    }
+                    return new SheetRow(row.getRowNum(), values);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        /**
+         * Formats the cell as the streaming reader does, using the stored result of a formula.
+         */
+        private static String formatStoredValue(Cell cell, DataFormatter formatter) {
+            if (cell.getCellTypeEnum() != CellType.FORMULA) {
+                return formatter.formatCellValue(cell);
+            }
+            switch (cell.getCachedFormulaResultTypeEnum()) {
+                case NUMERIC:
+                    CellStyle style = cell.getCellStyle();
+                    return formatter.formatRawCellContents(cell.getNumericCellValue(), style.getDataFormat(),
+                            style.getDataFormatString());
+                case STRING:
+                    return cell.getRichStringCellValue().getString();
+                case BOOLEAN:
+                    return cell.getBooleanCellValue() ? "TRUE" : "FALSE";
+                case ERROR:
+                    return FormulaError.forInt(cell.getErrorCellValue()).getString();
+                default:
+                    return "";
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            workbook.close();
+        }
+
+        @Override
+        public String toString() {
+            return excelFilePath;
+        }
+    }
+}
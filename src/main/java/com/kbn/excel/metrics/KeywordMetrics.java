@@ -0,0 +1,263 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Process wide, opt-in timing of the keywords run through the library and of the workbook files opened and saved.
+ * Per keyword the number of calls, a latency histogram and the bytes allocated by the calling thread are kept; per
+ * file operation the latency histogram and the file sizes.
+ * <p>
+ * Metrics are disabled until {@link #enable(String)} is called or the JVM is started with
+ * {@code -Djyexcel.metrics.enabled=true}; while disabled recording costs a single volatile read. When a dump file is
+ * set (argument of enable or {@code -Djyexcel.metrics.dumpFile}) the metrics are written to it as JSON when the
+ * library is torn down.
+ */
+public class KeywordMetrics implements KeywordMetricsMBean {
+
+    public static final String ENABLED_PROPERTY = "jyexcel.metrics.enabled";
+    public static final String DUMP_FILE_PROPERTY = "jyexcel.metrics.dumpFile";
+
+    private static final String OBJECT_NAME = "com.kbn.excel:type=KeywordMetrics";
+    private static final KeywordMetrics INSTANCE = new KeywordMetrics();
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final boolean allocationSupported;
+    private final Map<String, Statistics> keywords = new TreeMap<>();
+    private final Map<String, Statistics> fileOperations = new TreeMap<>();
+    private volatile boolean enabled;
+    private String dumpFile;
+    private boolean registered;
+
+    private KeywordMetrics() {
+        allocationSupported = threadMXBean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported();
+        if (Boolean.getBoolean(ENABLED_PROPERTY)) {
+            enable(System.getProperty(DUMP_FILE_PROPERTY));
+        }
+    }
+
+    public static KeywordMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts recording. A null dump file keeps the one set before.
+     */
+    public synchronized void enable(String dumpFile) {
+        if (dumpFile != null) {
+            this.dumpFile = dumpFile;
+        }
+        if (allocationSupported) {
+            ((com.sun.management.ThreadMXBean) threadMXBean).setThreadAllocatedMemoryEnabled(true);
+        }
+        enabled = true;
+        register();
+    }
+
+    public synchronized void disable() {
+        enabled = false;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        if (enabled) {
+            enable(null);
+        } else {
+            disable();
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by the current thread, or 0 when the JVM does not track it.
+     */
+    public long getAllocatedBytes() {
+        if (!allocationSupported) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    public synchronized void recordKeyword(String keywordName, long nanos, long allocatedBytes) {
+        if (!enabled) {
+            return;
+        }
+        Statistics statistics = keywords.get(keywordName);
+        if (statistics == null) {
+            statistics = new Statistics();
+            keywords.put(keywordName, statistics);
+        }
+        statistics.latency.record(nanos);
+        statistics.bytes += Math.max(allocatedBytes, 0);
+    }
+
+    public void recordOpen(String excelFilePath, long nanos) {
+        recordFileOperation("open", excelFilePath, nanos);
+    }
+
+    public void recordSave(String excelFilePath, long nanos) {
+        recordFileOperation("save", excelFilePath, nanos);
+    }
+
+    private synchronized void recordFileOperation(String operation, String excelFilePath, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        Statistics statistics = fileOperations.get(operation);
+        if (statistics == null) {
+            statistics = new Statistics();
+            fileOperations.put(operation, statistics);
+        }
+        statistics.latency.record(nanos);
+        statistics.bytes += new File(excelFilePath).length();
+    }
+
+    /**
+     * Returns the metrics as nested maps: "keywords" maps each keyword name to its calls, latencies in microseconds
+     * and allocated bytes; "files" maps "open" and "save" to their count, latencies and bytes read or written.
+     */
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> keywordMetrics = new LinkedHashMap<>();
+        for (Map.Entry<String, Statistics> entry : keywords.entrySet()) {
+            keywordMetrics.put(entry.getKey(), entry.getValue().toMap("allocatedBytes"));
+        }
+        Map<String, Object> fileMetrics = new LinkedHashMap<>();
+        for (Map.Entry<String, Statistics> entry : fileOperations.entrySet()) {
+            fileMetrics.put(entry.getKey(), entry.getValue().toMap("bytes"));
+        }
+
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("keywords", keywordMetrics);
+        metrics.put("files", fileMetrics);
+        return metrics;
+    }
+
+    @Override
+    public synchronized long getKeywordCalls() {
+        long calls = 0;
+        for (Statistics statistics : keywords.values()) {
+            calls += statistics.latency.getCount();
+        }
+        return calls;
+    }
+
+    @Override
+    public String getMetricsJson() {
+        StringBuilder json = new StringBuilder();
+        appendJson(json, getMetrics());
+        return json.toString();
+    }
+
+    @Override
+    public synchronized void reset() {
+        keywords.clear();
+        fileOperations.clear();
+    }
+
+    /**
+     * Writes the metrics as JSON into the dump file, if metrics are enabled and a dump file is set.
+     */
+    public void dump() throws IOException {
+        String target;
+        synchronized (this) {
+            if (!enabled || dumpFile == null) {
+                return;
+            }
+            target = dumpFile;
+        }
+        try (Writer writer = Files.newBufferedWriter(new File(target).toPath(), StandardCharsets.UTF_8)) {
+            writer.write(getMetricsJson());
+        }
+    }
+
+    private synchronized void register() {
+        if (registered) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value instanceof Map) {
+            json.append('{');
+            String separator = "";
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                json.append(separator);
+                appendJson(json, String.valueOf(entry.getKey()));
+                json.append(':');
+                appendJson(json, entry.getValue());
+                separator = ",";
+            }
+            json.append('}');
+        } else if (value instanceof Number) {
+            json.append(value);
+        } else {
+            json.append('"');
+            String text = String.valueOf(value);
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+
+    private static class Statistics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        long bytes;
+
+        Map<String, Long> toMap(String bytesName) {
+            Map<String, Long> map = new LinkedHashMap<>();
+            map.put("calls", latency.getCount());
+            map.put("p50Micros", latency.getPercentile(50) / 1000);
+            map.put("p99Micros", latency.getPercentile(99) / 1000);
+            map.put("maxMicros", latency.getMax() / 1000);
+            map.put("totalMicros", latency.getTotal() / 1000);
+            map.put(bytesName, bytes);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,684 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.streaming;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.SAXHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read only view of an .xlsx file built on the OOXML event model. Only the workbook index, the shared strings and the
+ * styles are read up front; every read walks the sheet XML with SAX and stops as soon as the requested data has been
+ * seen.
+ * <p>
+ * With a sheet cache budget each sheet is instead parsed once, the first time it is read, into a compact list of its
+ * formatted cells which serves the following reads. The least recently read sheets are dropped once the estimated
+ * size of the parsed sheets exceeds the budget, the sheet read last is always kept.
+ */
+public class StreamingWorkbookReader implements Closeable {
+
+    private final OPCPackage opcPackage;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final DataFormatter dataFormatter = new DataFormatter();
+    private final Map<String, PackagePart> sheetParts = new LinkedHashMap<>();
+    private final Map<String, int[]> sheetDimensions = new HashMap<>();
+    private final Map<String, int[]> usedRanges = new HashMap<>();
+    private final Map<String, ParsedSheet> parsedSheets = new LinkedHashMap<>(16, 0.75f, true);
+    private final long sheetCacheBudget;
+    private long parsedSheetBytes;
+    private String activeSheet;
+
+    public StreamingWorkbookReader(String excelFilePath) throws IOException {
+        this(excelFilePath, 0);
+    }
+
+    /**
+     * Opens the file with a cache of parsed sheets holding up to the given number of bytes, or without one when the
+     * budget is 0.
+     */
+    public StreamingWorkbookReader(String excelFilePath, long sheetCacheBudget) throws IOException {
+        this.sheetCacheBudget = sheetCacheBudget;
+        try {
+            opcPackage = OPCPackage.open(new File(excelFilePath), PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException("Unable to open " + excelFilePath + " as an .xlsx package.", e);
+        }
+
+        try {
+            XSSFReader xssfReader = new XSSFReader(opcPackage);
+            sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+            styles = xssfReader.getStylesTable();
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            while (sheets.hasNext()) {
+                sheets.next().close();
+                sheetParts.put(sheets.getSheetName(), sheets.getSheetPart());
+            }
+        } catch (OpenXML4JException | SAXException | IOException e) {
+            opcPackage.revert();
+            throw new IOException("Unable to read the workbook structure of " + excelFilePath, e);
+        }
+
+        if (!sheetParts.isEmpty()) {
+            activeSheet = sheetParts.keySet().iterator().next();
+        }
+    }
+
+    public void selectSheet(String sheetName) {
+        if (!sheetParts.containsKey(sheetName)) {
+            throw new IllegalArgumentException("Sheet " + sheetName + " does not exist in the workbook.");
+        }
+        activeSheet = sheetName;
+    }
+
+    public String getActiveSheet() {
+        return activeSheet;
+    }
+
+    public boolean containsSheet(String sheetName) {
+        return sheetParts.containsKey(sheetName);
+    }
+
+    public String[] getSheetNames() {
+        return sheetParts.keySet().toArray(new String[sheetParts.size()]);
+    }
+
+    public int getNumberOfSheets() {
+        return sheetParts.size();
+    }
+
+    public String getCellData(final int rowNumber, final int colNumber) {
+        final String[] result = {""};
+        parseActiveSheet(new RowCollector() {
+            @Override
+            void onCell(int rowNum, int colNum, String value) {
+                if (rowNum == rowNumber && colNum == colNumber) {
+                    result[0] = value;
+                    throw STOP;
+                }
+            }
+
+            @Override
+            void onRowEnd(int rowNum) {
+                if (rowNum >= rowNumber) {
+                    throw STOP;
+                }
+            }
+        });
+        return result[0];
+    }
+
+    public String[] getRowValues(final int rowNumber, boolean includeEmptyCells) {
+        final Map<Integer, String> cells = new HashMap<>();
+        final int[] colCount = {0};
+        parseActiveSheet(new RowCollector() {
+            @Override
+            void onCell(int rowNum, int colNum, String value) {
+                if (rowNum == 0) {
+                    colCount[0] = colNum + 1;
+                }
+                if (rowNum == rowNumber) {
+                    cells.put(colNum, value);
+                }
+            }
+
+            @Override
+            void onRowEnd(int rowNum) {
+                if (rowNum >= rowNumber) {
+                    throw STOP;
+                }
+            }
+        });
+
+        ArrayList<String> rowValues = new ArrayList<>();
+        for (int i = 0; i < colCount[0]; i++) {
+            String data = cells.containsKey(i) ? cells.get(i) : "";
+            if (!includeEmptyCells && data.equals("")) {
+                continue;
+            }
+            rowValues.add(data);
+        }
+        return rowValues.toArray(new String[rowValues.size()]);
+    }
+
+    public String[] getColumnValues(final int colNumber, final boolean includeEmptyCells) {
+        final List<String> colValues = new ArrayList<>();
+        final int[] lastRow = {-1};
+        parseActiveSheet(new RowCollector() {
+            private String current;
+
+            @Override
+            void onRowStart(int rowNum) {
+                if (includeEmptyCells) {
+                    for (int i = lastRow[0] + 1; i < rowNum; i++) {
+                        colValues.add("");
+                    }
+                }
+                current = "";
+            }
+
+            @Override
+            void onCell(int rowNum, int colNum, String value) {
+                if (colNum == colNumber) {
+                    current = value;
+                }
+            }
+
+            @Override
+            void onRowEnd(int rowNum) {
+                if (includeEmptyCells || !current.equals("")) {
+                    colValues.add(current);
+                }
+                lastRow[0] = rowNum;
+            }
+        });
+        return colValues.toArray(new String[colValues.size()]);
+    }
+
+    /**
+     * Reads the rectangular range in a single pass. A negative lastRow reads until the end of the sheet and a negative
+     * lastCol reads until the last cell of the range's first row.
+     */
+    public List<List<String>> getRangeValues(final int firstRow, final int firstCol, final int lastRow,
+                                             final int lastCol) {
+        final List<List<String>> rows = new ArrayList<>();
+        parseActiveSheet(new RowCollector() {
+            private int width = lastCol < 0 ? -1 : lastCol - firstCol + 1;
+            private List<String> current;
+
+            @Override
+            void onRowStart(int rowNum) {
+                if (lastRow >= 0 && rowNum > lastRow) {
+                    throw STOP;
+                }
+                while (rowNum > firstRow + rows.size()) {
+                    rows.add(blankRow(width));
+                }
+                current = rowNum < firstRow ? null : new ArrayList<String>();
+            }
+
+            @Override
+            void onCell(int rowNum, int colNum, String value) {
+                if (current == null || colNum < firstCol || (width >= 0 && colNum - firstCol >= width)) {
+                    return;
+                }
+                while (current.size() < colNum - firstCol) {
+                    current.add("");
+                }
+                current.add(value);
+            }
+
+            @Override
+            void onRowEnd(int rowNum) {
+                if (current == null) {
+                    return;
+                }
+                if (width < 0) {
+                    width = current.size();
+                    for (List<String> row : rows) {
+                        row.addAll(blankRow(width));
+                    }
+                }
+                while (current.size() < width) {
+                    current.add("");
+                }
+                rows.add(current);
+            }
+        });
+
+        int width = rows.isEmpty() ? Math.max(lastCol - firstCol + 1, 0) : rows.get(0).size();
+        while (lastRow >= 0 && firstRow + rows.size() <= lastRow) {
+            rows.add(blankRow(width));
+        }
+        return rows;
+    }
+
+    private static List<String> blankRow(int width) {
+        List<String> row = new ArrayList<>(Math.max(width, 0));
+        for (int i = 0; i < width; i++) {
+            row.add("");
+        }
+        return row;
+    }
+
+    public int getRowCount() {
+        return dimensions()[0];
+    }
+
+    public int getColumnCount() {
+        return dimensions()[1];
+    }
+
+    private int[] dimensions() {
+        int[] dimensions = sheetDimensions.get(activeSheet);
+        if (dimensions == null) {
+            final int[] counts = {0, 0};
+            parseActiveSheet(new RowCollector() {
+                @Override
+                void onCell(int rowNum, int colNum, String value) {
+                    if (rowNum == 0) {
+                        counts[1] = colNum + 1;
+                    }
+                }
+
+                @Override
+                void onRowEnd(int rowNum) {
+                    counts[0] = rowNum + 1;
+                }
+            });
+            dimensions = counts;
+            sheetDimensions.put(activeSheet, dimensions);
+        }
+        return dimensions;
+    }
+
+    /**
+     * Returns the first row, first column, last row and last column of the cells of the active sheet which hold a
+     * value, or an empty array when there are none. The range is computed by the first call for each sheet.
+     */
+    public int[] getUsedRange() {
+        int[] usedRange = usedRanges.get(activeSheet);
+        if (usedRange == null) {
+            final int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, -1, -1};
+            parseActiveSheet(new RowCollector() {
+                @Override
+                void onCell(int rowNum, int colNum, String value) {
+                    if (!value.isEmpty()) {
+                        bounds[0] = Math.min(bounds[0], rowNum);
+                        bounds[1] = Math.min(bounds[1], colNum);
+                        bounds[2] = Math.max(bounds[2], rowNum);
+                        bounds[3] = Math.max(bounds[3], colNum);
+                    }
+                }
+            });
+            usedRange = bounds[2] < 0 ? new int[0] : bounds;
+            usedRanges.put(activeSheet, usedRange);
+        }
+        return usedRange.clone();
+    }
+
+    /**
+     * Walks the cells of the given sheet in row order until the visitor returns false. Unlike the other reads this
+     * does not use the active sheet and formats the cells with a formatter of its own, so several sheets can be
+     * scanned by different threads at the same time.
+     */
+    public void scanSheet(String sheetName, final CellVisitor visitor) {
+        checkSheet(sheetName);
+        parseSheet(sheetName, new DataFormatter(), new RowCollector() {
+            @Override
+            void onCell(int rowNum, int colNum, String value) {
+                if (!visitor.visitCell(rowNum, colNum, value)) {
+                    throw STOP;
+                }
+            }
+        });
+    }
+
+    /**
+     * Walks the rows of the given sheet in order, handing each row to the visitor as soon as it has been parsed, so
+     * only one row is held in memory. Like {@link #scanSheet(String, CellVisitor)} this does not use the active sheet.
+     */
+    public void scanRows(String sheetName, final RowVisitor visitor) {
+        checkSheet(sheetName);
+        parseSheet(sheetName, new DataFormatter(), new RowCollector() {
+            private final List<String> values = new ArrayList<>();
+
+            @Override
+            void onRowStart(int rowNum) {
+                values.clear();
+            }
+
+            @Override
+            void onCell(int rowNum, int colNum, String value) {
+                while (values.size() < colNum) {
+                    values.add("");
+                }
+                values.add(value);
+            }
+
+            @Override
+            void onRowEnd(int rowNum) {
+                visitor.visitRow(rowNum, values);
+            }
+        });
+    }
+
+    /**
+     * Hands the numbers of one column of the given sheet to the visitor, parsed straight from the sheet XML without
+     * formatting them. Cells holding text, booleans, errors or dates are skipped, formulas count with the result stored
+     * in the file. Like {@link #scanSheet(String, CellVisitor)} this does not use the active sheet, nor the cache of
+     * parsed sheets, which holds formatted values only.
+     */
+    public void scanColumnNumbers(String sheetName, int colNumber, NumberVisitor visitor) {
+        checkSheet(sheetName);
+        parse(sheetName, new NumberColumnHandler(colNumber, visitor));
+    }
+
+    private void checkSheet(String sheetName) {
+        if (!sheetParts.containsKey(sheetName)) {
+            throw new IllegalArgumentException("Sheet " + sheetName + " does not exist in the workbook.");
+        }
+    }
+
+    private void parseActiveSheet(RowCollector collector) {
+        if (activeSheet == null) {
+            throw new IllegalStateException("The workbook does not contain any sheets.");
+        }
+        if (sheetCacheBudget <= 0) {
+            parseSheet(activeSheet, dataFormatter, collector);
+            return;
+        }
+
+        ParsedSheet parsedSheet = parsedSheets.get(activeSheet);
+        if (parsedSheet == null) {
+            parsedSheet = new ParsedSheet();
+            parseSheet(activeSheet, dataFormatter, parsedSheet);
+            cacheSheet(activeSheet, parsedSheet);
+        }
+        try {
+            parsedSheet.replay(collector);
+        } catch (StopParsing e) {
+            // The collector has everything it needs, skip the rest of the sheet.
+        }
+    }
+
+    private void cacheSheet(String sheetName, ParsedSheet parsedSheet) {
+        parsedSheets.put(sheetName, parsedSheet);
+        parsedSheetBytes += parsedSheet.estimatedBytes();
+        Iterator<ParsedSheet> leastRecentlyRead = parsedSheets.values().iterator();
+        while (parsedSheetBytes > sheetCacheBudget && parsedSheets.size() > 1) {
+            parsedSheetBytes -= leastRecentlyRead.next().estimatedBytes();
+            leastRecentlyRead.remove();
+        }
+    }
+
+    private void parseSheet(String sheetName, DataFormatter formatter, RowCollector collector) {
+        parse(sheetName, new XSSFSheetXMLHandler(styles, null, sharedStrings, collector, formatter, false));
+    }
+
+    private void parse(String sheetName, ContentHandler handler) {
+        try (InputStream sheetStream = sheetParts.get(sheetName).getInputStream()) {
+            XMLReader parser = SAXHelper.newXMLReader();
+            parser.setContentHandler(handler);
+            parser.parse(new InputSource(sheetStream));
+        } catch (StopParsing e) {
+            // The collector has everything it needs, skip the rest of the sheet.
+        } catch (IOException | SAXException | ParserConfigurationException e) {
+            throw new IllegalStateException("Unable to read sheet " + sheetName, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        parsedSheets.clear();
+        parsedSheetBytes = 0;
+        opcPackage.revert();
+    }
+
+    private static final StopParsing STOP = new StopParsing();
+
+    /**
+     * Receives the formatted cells of a sheet scanned by {@link #scanSheet(String, CellVisitor)}.
+     */
+    public interface CellVisitor {
+
+        /**
+         * Returns false to stop the scan.
+         */
+        boolean visitCell(int rowNumber, int colNumber, String value);
+    }
+
+    /**
+     * Receives the rows of a sheet scanned by {@link #scanRows(String, RowVisitor)}.
+     */
+    public interface RowVisitor {
+
+        /**
+         * Receives the formatted values of the row up to its last cell, missing cells being empty. The list is reused
+         * for the next row.
+         */
+        void visitRow(int rowNumber, List<String> values);
+    }
+
+    /**
+     * Receives the numbers of a column scanned by {@link #scanColumnNumbers(String, int, NumberVisitor)}.
+     */
+    public interface NumberVisitor {
+
+        void visitNumber(double value);
+    }
+
+    private static class StopParsing extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopParsing() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * The formatted cells of a parsed sheet, kept in flat arrays to keep the per cell overhead low.
+     */
+    private static class ParsedSheet extends RowCollector {
+        private static final int CELL_OVERHEAD_BYTES = 48;
+
+        private int rowCount;
+        private int[] rowNumbers = new int[64];
+        private int[] rowEnds = new int[64];
+        private int cellCount;
+        private int[] columns = new int[256];
+        private String[] values = new String[256];
+        private long valueBytes;
+
+        @Override
+        void onRowStart(int rowNum) {
+            if (rowCount == rowNumbers.length) {
+                rowNumbers = Arrays.copyOf(rowNumbers, rowCount * 2);
+                rowEnds = Arrays.copyOf(rowEnds, rowCount * 2);
+            }
+            rowNumbers[rowCount] = rowNum;
+        }
+
+        @Override
+        void onCell(int rowNum, int colNum, String value) {
+            if (cellCount == columns.length) {
+                columns = Arrays.copyOf(columns, cellCount * 2);
+                values = Arrays.copyOf(values, cellCount * 2);
+            }
+            columns[cellCount] = colNum;
+            values[cellCount++] = value;
+            valueBytes += CELL_OVERHEAD_BYTES + 2L * value.length();
+        }
+
+        @Override
+        void onRowEnd(int rowNum) {
+            rowEnds[rowCount++] = cellCount;
+        }
+
+        void replay(RowCollector collector) {
+            int cell = 0;
+            for (int row = 0; row < rowCount; row++) {
+                collector.onRowStart(rowNumbers[row]);
+                for (; cell < rowEnds[row]; cell++) {
+                    collector.onCell(rowNumbers[row], columns[cell], values[cell]);
+                }
+                collector.onRowEnd(rowNumbers[row]);
+            }
+        }
+
+        long estimatedBytes() {
+            return valueBytes + 8L * rowNumbers.length + 12L * columns.length;
+        }
+    }
+
+    /**
+     * Picks the numeric cells of one column out of the sheet XML. Only the value text of those cells is collected; the
+     * column is read from the cell reference directly and whether a style formats dates is decided once per style.
+     */
+    private class NumberColumnHandler extends DefaultHandler {
+        private static final byte UNKNOWN_STYLE = 0;
+        private static final byte DATE_STYLE = 1;
+        private static final byte NUMBER_STYLE = 2;
+
+        private final int column;
+        private final NumberVisitor visitor;
+        private final StringBuilder value = new StringBuilder();
+        private byte[] styleKinds = new byte[64];
+        private int currentColumn = -1;
+        private boolean numericCell;
+        private boolean inValue;
+
+        NumberColumnHandler(int column, NumberVisitor visitor) {
+            this.column = column;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if ("row".equals(localName)) {
+                currentColumn = -1;
+            } else if ("c".equals(localName)) {
+                String reference = attributes.getValue("r");
+                currentColumn = reference == null ? currentColumn + 1 : columnOf(reference);
+                String type = attributes.getValue("t");
+                numericCell = currentColumn == column && (type == null || "n".equals(type)) &&
+                        !isDateStyle(attributes.getValue("s"));
+            } else if ("v".equals(localName) && numericCell) {
+                inValue = true;
+                value.setLength(0);
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (inValue) {
+                value.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if ("v".equals(localName) && inValue) {
+                inValue = false;
+                if (value.length() > 0) {
+                    visitor.visitNumber(Double.parseDouble(value.toString()));
+                }
+            } else if ("c".equals(localName)) {
+                numericCell = false;
+            }
+        }
+
+        private int columnOf(String reference) {
+            int col = 0;
+            for (int i = 0; i < reference.length(); i++) {
+                char c = reference.charAt(i);
+                if (c < 'A' || c > 'Z') {
+                    break;
+                }
+                col = col * 26 + c - 'A' + 1;
+            }
+            return col - 1;
+        }
+
+        private boolean isDateStyle(String styleIndex) {
+            if (styles == null) {
+                return false;
+            }
+            int index = styleIndex == null ? 0 : Integer.parseInt(styleIndex);
+            if (index >= styleKinds.length) {
+                styleKinds = Arrays.copyOf(styleKinds, Math.max(index + 1, styleKinds.length * 2));
+            }
+            if (styleKinds[index] == UNKNOWN_STYLE) {
+                XSSFCellStyle style = index < styles.getNumCellStyles() ? styles.getStyleAt(index) : null;
+                boolean date = style != null && DateUtil.isADateFormat(style.getDataFormat(),
+                        style.getDataFormatString());
+                styleKinds[index] = date ? DATE_STYLE : NUMBER_STYLE;
+            }
+            return styleKinds[index] == DATE_STYLE;
+        }
+    }
+
+    /**
+     * Adapts {@link XSSFSheetXMLHandler.SheetContentsHandler} to zero based row and column indexes, filling in the
+     * column index for cells written without a reference.
+     */
+    private abstract static class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private int currentRow = -1;
+        private int currentCol = -1;
+
+        void onRowStart(int rowNum) {
+        }
+
+        abstract void onCell(int rowNum, int colNum, String value);
+
+        void onRowEnd(int rowNum) {
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            currentRow = rowNum;
+            currentCol = -1;
+            onRowStart(rowNum);
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            onRowEnd(rowNum);
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            currentCol = cellReference == null ? currentCol + 1 : new CellReference(cellReference).getCol();
+            onCell(currentRow, currentCol, formattedValue == null ? "" : formattedValue);
+        }
+
+        @Override
+        public void headerFooter(String text, boolean isHeader, String tagName) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018 Badari Narayana
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kbn.excel.style;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out one shared {@link CellStyle} per distinct set of formatting attributes of a workbook, so that formatting
+ * many cells the same way adds a single entry to the workbook's style table.
+ */
+public class CellStylePool {
+
+    private final Workbook workbook;
+    private final Map<StyleKey, CellStyle> styles = new HashMap<>();
+
+    public CellStylePool(Workbook workbook) {
+        this.workbook = workbook;
+    }
+
+    public CellStyle getStyle(String dataFormat) {
+        return getStyle(new StyleKey(dataFormat));
+    }
+
+    public CellStyle getStyle(StyleKey key) {
+        CellStyle cellStyle = styles.get(key);
+        if (cellStyle == null) {
+            cellStyle = workbook.createCellStyle();
+            key.applyTo(workbook, cellStyle);
+            styles.put(key, cellStyle);
+        }
+        return cellStyle;
+    }
+
+    public int size() {
+        return styles.size();
+    }
+
+    /**
+     * The formatting attributes a pooled style is looked up by. Only the data format is supported for now; fonts,
+     * fills and alignment belong here as well once keywords need them.
+     */
+    public static final class StyleKey {
+        private final String dataFormat;
+
+        public StyleKey(String dataFormat) {
+            this.dataFormat = dataFormat;
+        }
+
+        void applyTo(Workbook workbook, CellStyle cellStyle) {
+            if (dataFormat != null) {
+                cellStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat(dataFormat));
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StyleKey)) {
+                return false;
+            }
+            StyleKey other = (StyleKey) o;
+            return dataFormat == null ? other.dataFormat == null : dataFormat.equals(other.dataFormat);
+        }
+
+        @Override
+        public int hashCode() {
+            return dataFormat == null ? 0 : dataFormat.hashCode();
+        }
+    }
+}
@@ -1,20 +1,40 @@
 package com.kbn.excel.keyword;
 
+import com.kbn.excel.JyExcelLibrary;
+import com.kbn.excel.cache.WorkbookCache;
+import com.kbn.excel.index.KeywordIndex;
+import com.kbn.excel.metrics.KeywordMetrics;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.usermodel.WorkbookFactory;
 import org.junit.After;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.robotframework.javalib.library.AnnotationLibrary;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 @RunWith(Parameterized.class)
 public class ExcelKeywordsTest {
@@ -159,6 +179,27 @@ public class ExcelKeywordsTest {
     }
 
 
+    @Test
+    public void testCreateWorkBookKeepsOtherWorkbooks() throws InvalidFormatException {
+        String createdFile = excelFile.replace("test", "created");
+        excelKeywords.openExcel(excelFile, "demo");
+        excelKeywords.createWorkBook(createdFile, "created");
+        Assert.assertEquals("", excelKeywords.getCellData(0, 0));
+        excelKeywords.setCellValueWithString("created", 0, 0);
+        excelKeywords.saveExcel();
+
+        excelKeywords.switchExcel("demo");
+        excelKeywords.setCellValueWithString("Carla", 2, 1);
+        excelKeywords.saveExcel();
+
+        excelKeywords.openExcel(createdFile, "reopened");
+        Assert.assertEquals("created", excelKeywords.getCellData(0, 0));
+        Assert.assertEquals("1", excelKeywords.getRowCount());
+        excelKeywords.openExcel(excelFile, "reopened");
+        Assert.assertEquals("Carla", excelKeywords.getCellData(2, 1));
+    }
+
+
     @Test
     public void testGetRowValues() {
         excelKeywords.openExcel(excelFile);
@@ -238,6 +279,906 @@ public class ExcelKeywordsTest {
     }
 
 
+    @Test
+    public void testStreamingReadOnlyMode() throws IOException, InvalidFormatException {
+        Assume.assumeTrue(excelFile.endsWith(".xlsx"));
+        excelKeywords.openExcelReadOnlyStreaming(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+
+        Assert.assertEquals("Carol", excelKeywords.getCellData(2, 1));
+        Assert.assertEquals("40.35", excelKeywords.getCellData(2, 4));
+        Assert.assertEquals("4600", excelKeywords.getCellData(2, 7));
+        Assert.assertEquals("", excelKeywords.getCellData(3, 6));
+        Assert.assertEquals("4", excelKeywords.getRowCount());
+        Assert.assertEquals("8", excelKeywords.getColumnCount());
+
+        Assert.assertArrayEquals(new String[]{"3", "Rick", "35", "M", "60", "1000", "", "1000"},
+                excelKeywords.getRowValues(3, true));
+        Assert.assertArrayEquals(new String[]{"Secondary Income", "2000", "1000"},
+                excelKeywords.getColumnValues(6, false));
+        Assert.assertArrayEquals(new String[]{"Secondary Income", "2000", "1000", ""},
+                excelKeywords.getColumnValues(6, true));
+        Assert.assertArrayEquals(new String[]{"Sheet1"}, excelKeywords.getSheetNames());
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testStreamingReadOnlyModeRejectsWrites() throws IOException, InvalidFormatException {
+        Assume.assumeTrue(excelFile.endsWith(".xlsx"));
+        excelKeywords.openExcelReadOnlyStreaming(excelFile);
+        excelKeywords.setCellValueWithString("dummy", 3, 9);
+    }
+
+
+    @Test
+    public void testLazyReadOnlyMode() throws IOException, InvalidFormatException {
+        Assume.assumeTrue(excelFile.endsWith(".xlsx"));
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.addNewSheet("Second");
+        excelKeywords.selectSheet("Second");
+        excelKeywords.setCellValueWithString("Second sheet", 0, 0);
+        excelKeywords.saveExcel();
+
+        // A budget of one byte keeps only the sheet read last.
+        excelKeywords.openExcelReadOnlyLazy(excelFile, "default", 1);
+        Assert.assertArrayEquals(new String[]{"Sheet1", "Second"}, excelKeywords.getSheetNames());
+        excelKeywords.selectSheet("Sheet1");
+        Assert.assertEquals("Carol", excelKeywords.getCellData(2, 1));
+        Assert.assertEquals("4600", excelKeywords.getCellData(2, 7));
+        Assert.assertEquals("4", excelKeywords.getRowCount());
+        excelKeywords.selectSheet("Second");
+        Assert.assertEquals("Second sheet", excelKeywords.getCellData(0, 0));
+        excelKeywords.selectSheet("Sheet1");
+        Assert.assertArrayEquals(new String[]{"3", "Rick", "35", "M", "60", "1000", "", "1000"},
+                excelKeywords.getRowValues(3, true));
+        Assert.assertArrayEquals(new String[]{"Secondary Income", "2000", "1000", ""},
+                excelKeywords.getColumnValues(6, true));
+        Assert.assertEquals(Arrays.asList("Carol", "28"), excelKeywords.getRangeValues(2, 1, 2, 2).get(0));
+
+        try {
+            excelKeywords.setCellValueWithString("Carla", 2, 1);
+            Assert.fail("Writes should fail in lazy read only mode");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testCreateWorkBookStreaming() throws InvalidFormatException {
+        Assume.assumeTrue(excelFile.endsWith(".xlsx"));
+        excelKeywords.createWorkBookStreaming(excelFile, 10);
+        for (int i = 0; i < 100; i++) {
+            excelKeywords.setCellValueWithNumber(i, i, 0);
+            excelKeywords.setCellValueWithString("row" + i, i, 1);
+        }
+        Assert.assertEquals("row95", excelKeywords.getCellData(95, 1));
+
+        try {
+            excelKeywords.setCellValueWithString("dummy", 0, 1);
+            Assert.fail("Writing to a flushed row should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        excelKeywords.saveExcel();
+
+        excelKeywords.openExcel(excelFile);
+        Assert.assertEquals("100", excelKeywords.getRowCount());
+        Assert.assertEquals("row0", excelKeywords.getCellData(0, 1));
+        Assert.assertEquals("99", excelKeywords.getCellData(99, 0));
+
+        excelKeywords.createWorkBookStreaming(excelFile.replace("test", "report"), 10, "report");
+        excelKeywords.setCellValueWithString("report", 0, 0);
+        excelKeywords.switchExcel("default");
+        Assert.assertEquals("row0", excelKeywords.getCellData(0, 1));
+        excelKeywords.switchExcel("report");
+        Assert.assertEquals("report", excelKeywords.getCellData(0, 0));
+        excelKeywords.closeExcel("report");
+    }
+
+
+    @Test
+    public void testFormulaResultFollowsCellUpdates() {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+        Assert.assertEquals("4600", excelKeywords.getCellData(2, 7));
+
+        excelKeywords.setCellValueWithNumber(2000, 2, 6);
+        Assert.assertEquals("5600", excelKeywords.getCellData(2, 7));
+
+        excelKeywords.setCellValueWithFormula("SUM(F3,G3,G3)", 2, 7);
+        Assert.assertEquals("7600", excelKeywords.getCellData(2, 7));
+
+        excelKeywords.evaluateAllFormulas();
+        Assert.assertEquals("7600", excelKeywords.getCellData(2, 7));
+    }
+
+
+    @Test
+    public void testGetRangeValues() {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+
+        List<?> table = excelKeywords.getRangeValues(2, 1, 3, 7);
+        Assert.assertEquals(Arrays.asList(
+                Arrays.asList("Carol", "28", "F", "40.35", "3600", "1000", "4600"),
+                Arrays.asList("Rick", "35", "M", "60", "1000", "", "1000")), table);
+
+        Assert.assertEquals(table, excelKeywords.getRangeValuesByReference("B3:H4"));
+        Assert.assertEquals(4, excelKeywords.getRangeValues(0, 0, -1, -1).size());
+    }
+
+
+    @Test
+    public void testGetRangeValuesWithHeaderRow() throws IOException, InvalidFormatException {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+        List<?> records = excelKeywords.getRangeValues(0, 0, -1, -1, true);
+        Assert.assertEquals(3, records.size());
+        Assert.assertEquals("Carol", ((Map<?, ?>) records.get(1)).get("Name"));
+        Assert.assertEquals("", ((Map<?, ?>) records.get(2)).get("Secondary Income"));
+
+        if (excelFile.endsWith(".xlsx")) {
+            excelKeywords.openExcelReadOnlyStreaming(excelFile);
+            Assert.assertEquals(records, excelKeywords.getRangeValues(0, 0, -1, -1, true));
+            Assert.assertEquals(excelKeywords.getRangeValuesByReference("B3:H5"),
+                    Arrays.asList(
+                            Arrays.asList("Carol", "28", "F", "40.35", "3600", "1000", "4600"),
+                            Arrays.asList("Rick", "35", "M", "60", "1000", "", "1000"),
+                            Arrays.asList("", "", "", "", "", "", "")));
+        }
+    }
+
+
+    @Test
+    public void testSetRangeValues() {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+        List<List<Object>> rows = Arrays.asList(
+                Arrays.<Object>asList("Name", "Age", "Joined", "Active", "Total"),
+                Arrays.<Object>asList("Tom", "30", "03-30-2018", "true", "=B6*2"),
+                Arrays.<Object>asList("Jerry", 4.5, "", false, "=B7*2"));
+        excelKeywords.setRangeValues(rows, 4, 0);
+        excelKeywords.saveExcel();
+
+        excelKeywords.openExcel(excelFile);
+        Assert.assertEquals(Arrays.asList(
+                Arrays.asList("Tom", "30", "03-30-2018", "TRUE", "60"),
+                Arrays.asList("Jerry", "4.5", "", "FALSE", "9")), excelKeywords.getRangeValues(5, 0, 6, 4));
+        Assert.assertEquals("Carol", excelKeywords.getCellData(2, 1));
+    }
+
+
+    @Test
+    public void testDateStylesAreReused() throws IOException, InvalidFormatException {
+        int stylesBefore = countCellStyles(excelFile);
+
+        excelKeywords.openExcel(excelFile);
+        for (int i = 0; i < 50; i++) {
+            excelKeywords.setCellValueWithDate("12-30-2018", 10 + i, 0);
+        }
+        excelKeywords.saveExcel();
+
+        Assert.assertEquals(stylesBefore + 1, countCellStyles(excelFile));
+        Assert.assertEquals("12-30-2018", excelKeywords.getCellData(59, 0));
+    }
+
+
+    @Test
+    public void testSetDateFormat() {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.setDateFormat("yyyy-MM-dd");
+        excelKeywords.setCellValueWithDate("2018-12-30", 3, 9);
+        excelKeywords.saveExcel();
+        Assert.assertEquals("2018-12-30", excelKeywords.getCellData(3, 9));
+
+        try {
+            excelKeywords.setCellValueWithDate("12-30-2018", 1, 1);
+            Assert.fail("A date which does not match the date format should be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("12-30-2018"));
+            Assert.assertTrue(e.getMessage().contains("yyyy-MM-dd"));
+        }
+        try {
+            excelKeywords.setCellValueWithDate("2018-12-30 junk", 1, 1);
+            Assert.fail("A date followed by other text should be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("2018-12-30 junk"));
+        }
+        Assert.assertEquals("Tom", excelKeywords.getCellData(1, 1));
+    }
+
+
+    private int countCellStyles(String file) throws IOException, InvalidFormatException {
+        try (Workbook workbook = WorkbookFactory.create(new File(file))) {
+            return workbook.getNumCellStyles();
+        }
+    }
+
+
+    @Test
+    public void testSwitchExcelKeepsEachWorkbook() throws IOException {
+        excelKeywords.openExcel(excelFile, "expected");
+        excelKeywords.openExcel(excelFile, "actual");
+        excelKeywords.addNewSheet("Results");
+        excelKeywords.selectSheet("Results");
+        excelKeywords.setCellValueWithString("changed", 0, 0);
+
+        excelKeywords.switchExcel("expected");
+        Assert.assertEquals("S.No", excelKeywords.getCellData(0, 0));
+        Assert.assertEquals("1", excelKeywords.getNumberOfSheets());
+
+        excelKeywords.switchExcel("actual");
+        Assert.assertEquals("changed", excelKeywords.getCellData(0, 0));
+
+        excelKeywords.closeExcel("actual");
+        excelKeywords.closeExcel("expected");
+        try {
+            excelKeywords.switchExcel("actual");
+            Assert.fail("Switching to a closed alias should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testWorkbookCache() throws IOException, InvalidFormatException {
+        excelKeywords.enableWorkbookCache(4, 10 * 1024 * 1024);
+        try {
+            WorkbookCache.getInstance().resetStatistics();
+            excelKeywords.openExcelReadOnly(excelFile);
+            excelKeywords.openExcelReadOnly(excelFile, "second");
+            Assert.assertEquals("Carol", excelKeywords.getCellData(2, 1));
+
+            Map<String, Long> statistics = excelKeywords.getWorkbookCacheStatistics();
+            Assert.assertEquals(Long.valueOf(1), statistics.get("misses"));
+            Assert.assertEquals(Long.valueOf(1), statistics.get("hits"));
+
+            try {
+                excelKeywords.setCellValueWithString("dummy", 3, 9);
+                Assert.fail("Writing to a read only workbook should fail");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+
+            Assert.assertTrue(new File(excelFile).setLastModified(new File(excelFile).lastModified() - 10000));
+            excelKeywords.openExcelReadOnly(excelFile);
+            Assert.assertEquals(Long.valueOf(2), excelKeywords.getWorkbookCacheStatistics().get("misses"));
+        } finally {
+            excelKeywords.disableWorkbookCache();
+        }
+    }
+
+
+    @Test
+    public void testParallelCallersShareCachedWorkbooks() throws Exception {
+        final ExcelKeywords perThreadKeywords = new ExcelKeywords(true);
+        perThreadKeywords.openExcel(excelFile, "writer");
+        perThreadKeywords.enableWorkbookCache(4, 10 * 1024 * 1024);
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            WorkbookCache.getInstance().resetStatistics();
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(workers.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        try {
+                            perThreadKeywords.getCellData(2, 1);
+                            Assert.fail("Another thread's excel file should not be visible");
+                        } catch (IllegalStateException e) {
+                            // expected
+                        }
+                        perThreadKeywords.openExcelReadOnly(excelFile);
+                        return perThreadKeywords.getCellData(2, 1);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                try {
+                    Assert.assertEquals("Carol", result.get());
+                } catch (ExecutionException e) {
+                    throw (Exception) e.getCause();
+                }
+            }
+            Assert.assertEquals(Long.valueOf(1), perThreadKeywords.getWorkbookCacheStatistics().get("misses"));
+            Assert.assertEquals(Long.valueOf(3), perThreadKeywords.getWorkbookCacheStatistics().get("hits"));
+
+            perThreadKeywords.setCellValueWithString("writer", 3, 9);
+            Assert.assertEquals("writer", perThreadKeywords.getCellData(3, 9));
+        } finally {
+            workers.shutdown();
+            perThreadKeywords.disableWorkbookCache();
+        }
+    }
+
+
+    @Test
+    public void testCachedWorkbooksReadSavedFormulaResults() throws IOException, InvalidFormatException {
+        // Saving doesn't evaluate the formulas, so the file keeps 4600 as the result of Carol's total income.
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.setCellValueWithNumber(0, 2, 5);
+        excelKeywords.saveExcel();
+        Assert.assertEquals("1000", excelKeywords.getCellData(2, 7));
+
+        excelKeywords.enableWorkbookCache(4, 10 * 1024 * 1024);
+        try {
+            excelKeywords.openExcelReadOnly(excelFile, "first");
+            excelKeywords.openExcelReadOnly(excelFile, "second");
+            Assert.assertEquals("4600", excelKeywords.getCellData(2, 7));
+            Assert.assertArrayEquals(new String[]{"Average Income", "3000", "4600", "1000"},
+                    excelKeywords.getColumnValues(7, false));
+            excelKeywords.switchExcel("first");
+            Assert.assertEquals("4600", excelKeywords.getCellData(2, 7));
+        } finally {
+            excelKeywords.disableWorkbookCache();
+        }
+    }
+
+
+    @Test
+    public void testKeywordsOfOneTestMayRunOnDifferentThreads() throws Exception {
+        ExecutorService opener = Executors.newSingleThreadExecutor();
+        try {
+            String handle = opener.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    excelKeywords.openExcel(excelFile, "opened");
+                    excelKeywords.setDateFormat("yyyy-MM-dd");
+                    excelKeywords.setCellValueWithDate("2018-12-30", 3, 9);
+                    return excelKeywords.saveExcelAsync();
+                }
+            }).get();
+
+            excelKeywords.waitForSave(handle);
+            Assert.assertEquals("Carol", excelKeywords.getCellData(2, 1));
+            Assert.assertEquals("2018-12-30", excelKeywords.getCellData(3, 9));
+            excelKeywords.setCellValueWithDate("2018-12-31", 3, 10);
+            Assert.assertEquals("2018-12-31", excelKeywords.getCellData(3, 10));
+            excelKeywords.switchExcel("opened");
+            excelKeywords.closeExcel("opened");
+        } finally {
+            opener.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testOpenExcelReadOnly() throws IOException, InvalidFormatException {
+        excelKeywords.openExcelReadOnly(excelFile);
+        Assert.assertEquals("4600", excelKeywords.getCellData(2, 7));
+        Assert.assertArrayEquals(new String[]{"Secondary Income", "2000", "1000"},
+                excelKeywords.getColumnValues(6, false));
+        excelKeywords.closeExcel();
+
+        try {
+            excelKeywords.getCellData(2, 7);
+            Assert.fail("Reading after Close Excel should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testSaveExcelFailure() throws IOException {
+        File directory = Files.createTempDirectory("jyexcel").toFile();
+        File file = new File(directory, new File(excelFile.replace('\\', '/')).getName());
+        Files.copy(new File(excelFile).toPath(), file.toPath());
+        excelKeywords.openExcel(file.getPath());
+        excelKeywords.setCellValueWithString("lost", 3, 9);
+        Files.delete(file.toPath());
+        Files.delete(directory.toPath());
+
+        try {
+            excelKeywords.saveExcel();
+            Assert.fail("Saving into a missing directory should fail");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().startsWith("Saving the excel file"));
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+
+    @Test
+    public void testSaveExcelAsync() throws IOException, InterruptedException {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.setCellValueWithString("first", 3, 9);
+        String handle = excelKeywords.saveExcelAsync();
+        excelKeywords.setCellValueWithString("second", 3, 10);
+        excelKeywords.waitForSave(handle);
+
+        excelKeywords.openExcel(excelFile, "saved");
+        Assert.assertEquals("first", excelKeywords.getCellData(3, 9));
+        Assert.assertEquals("", excelKeywords.getCellData(3, 10));
+
+        excelKeywords.switchExcel("default");
+        excelKeywords.saveExcelAsync();
+        excelKeywords.waitForSave();
+        excelKeywords.openExcel(excelFile, "saved");
+        Assert.assertEquals("second", excelKeywords.getCellData(3, 10));
+
+        File[] leftovers = new File(excelFile).getAbsoluteFile().getParentFile().listFiles();
+        for (File leftover : leftovers) {
+            Assert.assertFalse(leftover.getName().startsWith(new File(excelFile).getName()) &&
+                    leftover.getName().endsWith(".tmp"));
+        }
+    }
+
+
+    @Test
+    public void testIncrementalSave() throws IOException, InvalidFormatException {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.setCellValueWithString("Carla", 2, 1);
+        excelKeywords.setCellValueWithNumber(4000, 2, 5);
+        excelKeywords.saveExcel();
+
+        if (excelFile.endsWith(".xlsx")) {
+            try (ZipFile original = new ZipFile(originalXLSXFile); ZipFile saved = new ZipFile(excelFile)) {
+                ZipEntry originalTheme = original.getEntry("xl/theme/theme1.xml");
+                ZipEntry savedTheme = saved.getEntry("xl/theme/theme1.xml");
+                Assert.assertEquals(originalTheme.getCrc(), savedTheme.getCrc());
+                Assert.assertEquals(originalTheme.getCompressedSize(), savedTheme.getCompressedSize());
+                Assert.assertNotEquals(original.getEntry("xl/worksheets/sheet1.xml").getCrc(),
+                        saved.getEntry("xl/worksheets/sheet1.xml").getCrc());
+                Assert.assertEquals(original.size(), saved.size());
+            }
+        }
+
+        excelKeywords.setCellValueWithString("Ricky", 3, 1);
+        excelKeywords.saveExcel();
+
+        excelKeywords.openExcelReadOnly(excelFile, "saved");
+        Assert.assertEquals("Carla", excelKeywords.getCellData(2, 1));
+        Assert.assertEquals("5000", excelKeywords.getCellData(2, 7));
+        Assert.assertEquals("Ricky", excelKeywords.getCellData(3, 1));
+        Assert.assertEquals("Tom", excelKeywords.getCellData(1, 1));
+    }
+
+
+    @Test
+    public void testIncrementalSaveSkipsSheetsWhoseFormulasWereOnlyRead() throws IOException {
+        Assume.assumeTrue(excelFile.endsWith(".xlsx"));
+        excelKeywords.openExcel(excelFile);
+        Assert.assertEquals("3000", excelKeywords.getCellData(1, 7));
+        Assert.assertArrayEquals(new String[]{"Average Income", "3000", "4600", "1000"},
+                excelKeywords.getColumnValues(7, false));
+        Assert.assertEquals(8600L, excelKeywords.getColumnSum(7));
+        excelKeywords.evaluateAllFormulas();
+        excelKeywords.saveExcel();
+
+        try (ZipFile original = new ZipFile(originalXLSXFile); ZipFile saved = new ZipFile(excelFile)) {
+            Assert.assertEquals(original.getEntry("xl/worksheets/sheet1.xml").getCrc(),
+                    saved.getEntry("xl/worksheets/sheet1.xml").getCrc());
+        }
+    }
+
+
+    @Test
+    public void testIncrementalSaveKeepsEvaluatedFormulaResults() throws IOException, InvalidFormatException {
+        Assume.assumeTrue(excelFile.endsWith(".xlsx"));
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.addNewSheet("Totals");
+        excelKeywords.selectSheet("Totals");
+        excelKeywords.setCellValueWithFormula("Sheet1!F2*2", 0, 0);
+        excelKeywords.saveExcel();
+
+        excelKeywords.selectSheet("Sheet1");
+        excelKeywords.setCellValueWithNumber(1500, 1, 5);
+        excelKeywords.selectSheet("Totals");
+        Assert.assertEquals("3000", excelKeywords.getCellData(0, 0));
+        excelKeywords.saveExcel();
+
+        excelKeywords.openExcelReadOnlyStreaming(excelFile, "saved");
+        excelKeywords.selectSheet("Totals");
+        Assert.assertEquals("3000", excelKeywords.getCellData(0, 0));
+    }
+
+
+    @Test
+    public void testExcelBatch() {
+        excelKeywords.openExcel(excelFile);
+        Assert.assertEquals("4600", excelKeywords.getCellData(2, 7));
+
+        excelKeywords.beginExcelBatch();
+        excelKeywords.setCellValueWithString("Ricky", 3, 1);
+        excelKeywords.setCellValueWithNumber(3000, 2, 5);
+        excelKeywords.setCellValueWithString("Carla", 2, 1);
+        excelKeywords.setCellValueWithNumber(4000, 2, 5);
+        excelKeywords.removeCellValue(1, 3);
+        Assert.assertEquals("Carol", excelKeywords.getCellData(2, 1));
+        Assert.assertEquals(5, excelKeywords.commitExcelBatch());
+
+        Assert.assertEquals("Carla", excelKeywords.getCellData(2, 1));
+        Assert.assertEquals("Ricky", excelKeywords.getCellData(3, 1));
+        Assert.assertEquals("5000", excelKeywords.getCellData(2, 7));
+        Assert.assertEquals("", excelKeywords.getCellData(1, 3));
+
+        excelKeywords.beginExcelBatch();
+        excelKeywords.setCellValueWithString("dropped", 2, 1);
+        try {
+            excelKeywords.setCellValueWithDate("2018-12-30", 2, 2);
+            Assert.fail("A date which does not match the date format should be rejected when it is queued.");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("2018-12-30"));
+        }
+        excelKeywords.rollbackExcelBatch();
+        Assert.assertEquals("Carla", excelKeywords.getCellData(2, 1));
+        try {
+            excelKeywords.commitExcelBatch();
+            Assert.fail("Committing without a batch should fail.");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage().startsWith("No batch is open"));
+        }
+
+        excelKeywords.saveExcel();
+        excelKeywords.openExcel(excelFile, "saved");
+        Assert.assertEquals("Carla", excelKeywords.getCellData(2, 1));
+        Assert.assertEquals("5000", excelKeywords.getCellData(2, 7));
+    }
+
+
+    @Test
+    public void testColumnAggregates() throws IOException, InvalidFormatException {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+        Assert.assertEquals(5600L, excelKeywords.getColumnSum(5));
+        Assert.assertEquals(1000L, excelKeywords.getColumnMin(5));
+        Assert.assertEquals(3600L, excelKeywords.getColumnMax(5));
+        Assert.assertEquals(31L, excelKeywords.getColumnAverage(2));
+        Assert.assertEquals(2, excelKeywords.getColumnCountDistinct(5));
+        Assert.assertEquals(157.12, excelKeywords.getColumnSum(4));
+        Assert.assertEquals(8600L, excelKeywords.getColumnSum(7));
+        Assert.assertNull(excelKeywords.getColumnMin(1));
+        Assert.assertEquals(0L, excelKeywords.getColumnSum(1));
+
+        excelKeywords.setCellValueWithNumber(5000, 2, 5);
+        excelKeywords.setCellValueWithDate("03-30-2018", 3, 5);
+        Assert.assertEquals(6000L, excelKeywords.getColumnSum(5));
+        Assert.assertEquals(8600L, excelKeywords.getColumnSum(7, true));
+        Assert.assertEquals(10000L, excelKeywords.getColumnSum(7));
+
+        if (excelFile.endsWith(".xlsx")) {
+            excelKeywords.openExcelReadOnlyStreaming(excelFile, "streaming");
+            Assert.assertEquals(5600L, excelKeywords.getColumnSum(5));
+            Assert.assertEquals(157.12, excelKeywords.getColumnSum(4));
+            Assert.assertEquals(8600L, excelKeywords.getColumnSum(7));
+            Assert.assertEquals(2, excelKeywords.getColumnCountDistinct(5));
+            Assert.assertEquals(60L, excelKeywords.getColumnMax(4));
+        }
+    }
+
+
+    @Test
+    public void testUsedRangeAndSparseReads() throws IOException, InvalidFormatException {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+        Map<String, Object> usedRange = excelKeywords.getUsedRange();
+        Assert.assertEquals(Arrays.<Object>asList(0, 0, 3, 7, "A1:H4"), new ArrayList<>(usedRange.values()));
+
+        Assert.assertEquals("", excelKeywords.getCellData(7, 1));
+        Assert.assertArrayEquals(new String[0], excelKeywords.getRowValues(7, false));
+        Assert.assertArrayEquals(new String[]{"", "", "", "", "", "", "", ""}, excelKeywords.getRowValues(7, true));
+        excelKeywords.setCellValueWithString("sparse", 6, 6);
+        Assert.assertArrayEquals(new String[]{"Secondary Income", "2000", "1000", "sparse"},
+                excelKeywords.getColumnValues(6, false));
+        Assert.assertArrayEquals(new String[]{"Secondary Income", "2000", "1000", "", "", "", "sparse"},
+                excelKeywords.getColumnValues(6, true));
+        Assert.assertEquals(Arrays.<Object>asList("Secondary Income", 2000L, 1000L, null, null, null, "sparse"),
+                excelKeywords.getColumnValuesRaw(6));
+        Assert.assertEquals(Arrays.<Number>asList(2000L, 1000L), excelKeywords.getColumnNumbers(6));
+        Assert.assertEquals(Arrays.<Object>asList(null, null, null, null, null, null, "sparse", null),
+                excelKeywords.getRowValuesRaw(6));
+        Assert.assertEquals(Arrays.<Object>asList(3L, "Rick", 35L, "M", 60L, 1000L, null, 1000L),
+                excelKeywords.getRowValuesRaw(3));
+        Assert.assertEquals("A1:H7", excelKeywords.getUsedRange().get("reference"));
+
+        excelKeywords.setCellValueWithString("far", 9, 10);
+        Assert.assertEquals(9, excelKeywords.getUsedRange().get("lastRow"));
+        Assert.assertEquals("A1:K10", excelKeywords.getUsedRange().get("reference"));
+        excelKeywords.removeCellValue(9, 10);
+        Assert.assertEquals("A1:H7", excelKeywords.getUsedRange().get("reference"));
+
+        excelKeywords.addNewSheet("Empty");
+        excelKeywords.selectSheet("Empty");
+        Assert.assertNull(excelKeywords.getUsedRange());
+        Assert.assertEquals("0", excelKeywords.getColumnCount());
+
+        if (excelFile.endsWith(".xlsx")) {
+            excelKeywords.openExcelReadOnlyStreaming(excelFile, "streaming");
+            Assert.assertEquals("A1:H4", excelKeywords.getUsedRange().get("reference"));
+        }
+    }
+
+
+    @Test
+    public void testColumnIndex() {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.createColumnIndex("Sheet1", 1);
+        Assert.assertArrayEquals(new String[]{"2", "Carol", "28", "F", "40.35", "3600", "1000", "4600"},
+                excelKeywords.getRowByKey("Sheet1", "Carol"));
+        Assert.assertEquals("35", excelKeywords.getCellByKey("Sheet1", "Rick", 2));
+
+        excelKeywords.setCellValueWithString("Carla", 2, 1);
+        Assert.assertEquals("28", excelKeywords.getCellByKey("Sheet1", "Carla", 2));
+        try {
+            excelKeywords.getRowByKey("Sheet1", "Carol");
+            Assert.fail("The overwritten key should no longer be indexed");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testFindCellsMatching() throws IOException, InvalidFormatException {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.addNewSheet("Search");
+        excelKeywords.selectSheet("Search");
+        excelKeywords.setCellValueWithString("Carol Jr", 3, 2);
+        excelKeywords.saveExcel();
+
+        List<Map<String, Object>> matches = excelKeywords.findCellsMatching("^Carol");
+        Assert.assertEquals(2, matches.size());
+        Assert.assertEquals("Sheet1", matches.get(0).get("sheet"));
+        Assert.assertEquals(2, matches.get(0).get("row"));
+        Assert.assertEquals(1, matches.get(0).get("column"));
+        Assert.assertEquals("Carol", matches.get(0).get("value"));
+        Assert.assertEquals("Search", matches.get(1).get("sheet"));
+        Assert.assertEquals(3, matches.get(1).get("row"));
+        Assert.assertEquals(2, matches.get(1).get("column"));
+
+        List<Map<String, Object>> firstMatch = excelKeywords.findCellsMatching("^Carol", "", 1);
+        Assert.assertEquals(matches.subList(0, 1), firstMatch);
+        Assert.assertEquals(matches.subList(1, 2), excelKeywords.findCellsMatching("Carol", "Search"));
+        Assert.assertEquals("4600", excelKeywords.findCellsMatching("^46", "Sheet1", 1).get(0).get("value"));
+        Assert.assertTrue(excelKeywords.findCellsMatching("no such value").isEmpty());
+
+        excelKeywords.setCellValueWithFormula("Sheet1!H3*2", 4, 0);
+        excelKeywords.selectSheet("Sheet1");
+        excelKeywords.setCellValueWithNumber(4000, 2, 5);
+        List<Map<String, Object>> totals = excelKeywords.findCellsMatching("^10000$");
+        Assert.assertEquals(1, totals.size());
+        Assert.assertEquals("Search", totals.get(0).get("sheet"));
+        Assert.assertEquals("10000", totals.get(0).get("value"));
+
+        if (excelFile.endsWith(".xlsx")) {
+            excelKeywords.openExcelReadOnlyStreaming(excelFile);
+            Assert.assertEquals(matches, excelKeywords.findCellsMatching("^Carol"));
+            Assert.assertEquals(firstMatch, excelKeywords.findCellsMatching("^Carol", "", 1));
+        }
+    }
+
+
+    @Test
+    public void testExportSheet() throws IOException, InvalidFormatException {
+        File csvFile = File.createTempFile("export", ".csv");
+        File jsonlFile = File.createTempFile("export", ".jsonl");
+        try {
+            excelKeywords.openExcel(excelFile);
+            excelKeywords.selectSheet("Sheet1");
+            excelKeywords.setCellValueWithString("Rick, \"Jr\"", 3, 1);
+            excelKeywords.exportSheetToCsv(csvFile.getPath());
+            excelKeywords.exportSheetToJsonl(jsonlFile.getPath(), "Sheet1", true);
+
+            List<String> lines = Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8);
+            Assert.assertEquals(excelKeywords.getRowCount(), String.valueOf(lines.size()));
+            Assert.assertEquals("S.No,Name,Age,Gender,Weight,Primary Income,Secondary Income,Average Income",
+                    lines.get(0));
+            Assert.assertEquals("2,Carol,28,F,40.35,3600,1000,4600", lines.get(2));
+            Assert.assertEquals("3,\"Rick, \"\"Jr\"\"\",35,M,60,1000,,1000", lines.get(3));
+
+            List<String> records = Files.readAllLines(jsonlFile.toPath(), StandardCharsets.UTF_8);
+            Assert.assertEquals(lines.size() - 1, records.size());
+            Assert.assertTrue(records.get(1).startsWith("{\"S.No\":\"2\",\"Name\":\"Carol\","));
+            Assert.assertTrue(records.get(2).contains("\"Name\":\"Rick, \\\"Jr\\\"\""));
+            assertExportOfMissingSheetFails(csvFile, jsonlFile);
+
+            if (excelFile.endsWith(".xlsx")) {
+                excelKeywords.saveExcel();
+                excelKeywords.openExcelReadOnlyStreaming(excelFile);
+                excelKeywords.exportSheetToCsv(csvFile.getPath(), "Sheet1");
+                Assert.assertEquals(lines, Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8));
+                excelKeywords.exportSheetToJsonl(jsonlFile.getPath(), "Sheet1", true);
+                Assert.assertEquals(records, Files.readAllLines(jsonlFile.toPath(), StandardCharsets.UTF_8));
+                assertExportOfMissingSheetFails(csvFile, jsonlFile);
+            }
+        } finally {
+            Files.delete(csvFile.toPath());
+            Files.delete(jsonlFile.toPath());
+        }
+    }
+
+    private void assertExportOfMissingSheetFails(File csvFile, File jsonlFile) throws IOException {
+        List<String> lines = Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8);
+        List<String> records = Files.readAllLines(jsonlFile.toPath(), StandardCharsets.UTF_8);
+        try {
+            excelKeywords.exportSheetToCsv(csvFile.getPath(), "Missing");
+            Assert.fail("Exporting a missing sheet should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            excelKeywords.exportSheetToJsonl(jsonlFile.getPath(), "Missing");
+            Assert.fail("Exporting a missing sheet should fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertEquals(lines, Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8));
+        Assert.assertEquals(records, Files.readAllLines(jsonlFile.toPath(), StandardCharsets.UTF_8));
+    }
+
+
+    @Test
+    public void testImportCsvToSheet() throws IOException, InvalidFormatException {
+        File csvFile = File.createTempFile("import", ".csv");
+        try {
+            Files.write(csvFile.toPath(), ("Name,Weight,Joined,Member,Note,Height\r\n" +
+                    "Ann,31.50,03-30-2018,true,\"two\nlines, \"\"quoted\"\"\"\r\n" +
+                    "Bob,7,,FALSE,=SUM(A1),n/a\n").getBytes(StandardCharsets.UTF_8));
+
+            excelKeywords.openExcel(excelFile);
+            Assert.assertEquals(3, excelKeywords.importCsvToSheet(csvFile.getPath(), "Imported"));
+            excelKeywords.selectSheet("Imported");
+            Assert.assertEquals("Weight", excelKeywords.getCellData(0, 1));
+            Assert.assertEquals("31.5", excelKeywords.getCellData(1, 1));
+            Assert.assertEquals("7", excelKeywords.getCellData(2, 1));
+            Assert.assertEquals("n/a", excelKeywords.getCellData(2, 5));
+            Assert.assertEquals("03-30-2018", excelKeywords.getCellData(1, 2));
+            Assert.assertEquals("", excelKeywords.getCellData(2, 2));
+            Assert.assertEquals("TRUE", excelKeywords.getCellData(1, 3));
+            Assert.assertEquals("two\nlines, \"quoted\"", excelKeywords.getCellData(1, 4));
+            Assert.assertEquals("=SUM(A1)", excelKeywords.getCellData(2, 4));
+
+            excelKeywords.selectSheet("Sheet1");
+            Assert.assertEquals(3, excelKeywords.importCsvToSheet(csvFile.getPath(), "", 10));
+            Assert.assertEquals("Bob", excelKeywords.getCellData(12, 0));
+
+            if (excelFile.endsWith(".xlsx")) {
+                excelKeywords.createWorkBookStreaming(excelFile, 2);
+                Assert.assertEquals(3, excelKeywords.importCsvToSheet(csvFile.getPath()));
+                excelKeywords.saveExcel();
+                excelKeywords.openExcel(excelFile);
+                Assert.assertEquals("FALSE", excelKeywords.getCellData(2, 3));
+                Assert.assertEquals("31.5", excelKeywords.getCellData(1, 1));
+            }
+        } finally {
+            Files.delete(csvFile.toPath());
+        }
+    }
+
+
+    @Test
+    public void testRawValues() {
+        excelKeywords.openExcel(excelFile);
+        excelKeywords.selectSheet("Sheet1");
+        Assert.assertEquals(40.35, excelKeywords.getCellValueRaw(2, 4));
+        Assert.assertEquals(28L, excelKeywords.getCellValueRaw(2, 2));
+        Assert.assertEquals("Carol", excelKeywords.getCellValueRaw(2, 1));
+        Assert.assertNull(excelKeywords.getCellValueRaw(3, 6));
+        Assert.assertNull(excelKeywords.getCellValueRaw(30, 1));
+        Assert.assertEquals(4600L, excelKeywords.getCellValueRaw(2, 7));
+
+        excelKeywords.setCellValueWithDate("03-30-2018", 2, 8);
+        excelKeywords.setRangeValues(Arrays.asList(Arrays.asList("true", "=1/0")), 2, 9);
+        Assert.assertEquals("2018-03-30", excelKeywords.getCellValueRaw(2, 8));
+        Assert.assertEquals(true, excelKeywords.getCellValueRaw(2, 9));
+        Assert.assertEquals("#DIV/0!", excelKeywords.getCellValueRaw(2, 10));
+
+        excelKeywords.setCellValueWithNumber(5000, 2, 5);
+        Assert.assertEquals(4600L, excelKeywords.getCellValueRaw(2, 7, true));
+        Assert.assertEquals(6000L, excelKeywords.getCellValueRaw(2, 7));
+        Assert.assertEquals(6000L, excelKeywords.getCellValueRaw(2, 7, true));
+
+        Assert.assertEquals(Arrays.<Object>asList(2L, "Carol", 28L, "F", 40.35, 5000L, 1000L, 6000L),
+                excelKeywords.getRowValuesRaw(2));
+        Assert.assertEquals(Arrays.<Object>asList("Secondary Income", 2000L, 1000L, null),
+                excelKeywords.getColumnValuesRaw(6));
+        Assert.assertEquals(Arrays.<Number>asList(2000L, 1000L), excelKeywords.getColumnNumbers(6));
+    }
+
+
+    @Test
+    public void testCompareWorkbooks() throws IOException, InvalidFormatException {
+        String suffix = excelFile.substring(excelFile.lastIndexOf('.'));
+        File expectedFile = File.createTempFile("expected", suffix);
+        try {
+            Files.copy(new File(excelFile).toPath(), expectedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue(excelKeywords.compareWorkbooks(expectedFile.getPath(), excelFile).isEmpty());
+
+            excelKeywords.openExcel(excelFile);
+            excelKeywords.selectSheet("Sheet1");
+            excelKeywords.setCellValueWithString("Carla", 2, 1);
+            excelKeywords.setCellValueWithString("Ricky", 3, 1);
+            excelKeywords.setCellValueWithString("extra", 3, 9);
+            excelKeywords.addNewSheet("Extra");
+            excelKeywords.saveExcel();
+
+            List<Map<String, Object>> differences = excelKeywords.compareWorkbooks(expectedFile.getPath(),
+                    excelFile);
+            Assert.assertEquals(4, differences.size());
+            Map<String, Object> difference = differences.get(0);
+            Assert.assertEquals("Sheet1", difference.get("sheet"));
+            Assert.assertEquals(2, difference.get("row"));
+            Assert.assertEquals(1, difference.get("column"));
+            Assert.assertEquals("Carol", difference.get("expected"));
+            Assert.assertEquals("Carla", difference.get("actual"));
+            Assert.assertEquals(Arrays.asList(3, 1, "Rick", "Ricky"), Arrays.asList(differences.get(1).get("row"),
+                    differences.get(1).get("column"), differences.get(1).get("expected"),
+                    differences.get(1).get("actual")));
+            Assert.assertEquals(Arrays.asList(3, 9, "", "extra"), Arrays.asList(differences.get(2).get("row"),
+                    differences.get(2).get("column"), differences.get(2).get("expected"),
+                    differences.get(2).get("actual")));
+            Assert.assertEquals("Extra", differences.get(3).get("sheet"));
+            Assert.assertNull(differences.get(3).get("row"));
+            Assert.assertNull(differences.get(3).get("expected"));
+            Assert.assertEquals("Extra", differences.get(3).get("actual"));
+
+            Assert.assertEquals(differences.subList(0, 3),
+                    excelKeywords.compareSheets(expectedFile.getPath(), excelFile, "Sheet1"));
+            Assert.assertEquals(differences.subList(0, 1),
+                    excelKeywords.compareSheets(expectedFile.getPath(), excelFile, "Sheet1", 1));
+        } finally {
+            Files.delete(expectedFile.toPath());
+        }
+    }
+
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExcelMetrics() throws IOException {
+        KeywordMetrics metrics = KeywordMetrics.getInstance();
+        File dumpFile = File.createTempFile("excel-metrics", ".json");
+        JyExcelLibrary library = new JyExcelLibrary();
+        try {
+            library.runKeyword("enableExcelMetrics", new Object[]{dumpFile.getPath()});
+            library.runKeyword("openExcel", new Object[]{excelFile});
+            Assert.assertEquals("Carol", library.runKeyword("getCellData", new Object[]{2, 1}));
+            library.runKeyword("saveExcel", new Object[0]);
+
+            Map<String, Map<String, Map<String, Long>>> recorded =
+                    (Map<String, Map<String, Map<String, Long>>>) library.runKeyword("getExcelMetrics", new Object[0]);
+            Map<String, Long> getCellData = recorded.get("keywords").get("getCellData");
+            Assert.assertEquals(Long.valueOf(1), getCellData.get("calls"));
+            Assert.assertTrue(getCellData.get("maxMicros") >= getCellData.get("p50Micros"));
+            Assert.assertEquals(Long.valueOf(1), recorded.get("files").get("open").get("calls"));
+            Assert.assertEquals(Long.valueOf(new File(excelFile).length()), recorded.get("files").get("save").get("bytes"));
+
+            library.close();
+            String json = new String(Files.readAllBytes(dumpFile.toPath()), "UTF-8");
+            Assert.assertTrue(json.startsWith("{\"keywords\":{"));
+            Assert.assertTrue(json.contains("\"getCellData\":{\"calls\":1,"));
+        } finally {
+            metrics.disable();
+            metrics.reset();
+            Files.delete(dumpFile.toPath());
+        }
+    }
+
+
+    @Test
+    public void testKeywordIndexMatchesAnnotationScanning() {
+        KeywordIndex keywordIndex = KeywordIndex.load();
+        Assert.assertNotNull("The keyword table should be generated at compile time", keywordIndex);
+        AnnotationLibrary annotationLibrary = new AnnotationLibrary("com/kbn/excel/keyword/**.class");
+
+        String[] keywordNames = keywordIndex.getKeywordNames();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(annotationLibrary.getKeywordNames())),
+                new HashSet<>(Arrays.asList(keywordNames)));
+        for (String keywordName : keywordNames) {
+            Assert.assertArrayEquals(keywordName, annotationLibrary.getKeywordArguments(keywordName),
+                    keywordIndex.getKeywordArguments(keywordName));
+            Assert.assertEquals(keywordName, annotationLibrary.getKeywordDocumentation(keywordName),
+                    keywordIndex.getKeywordDocumentation(keywordName));
+        }
+
+        keywordIndex.runKeyword("Open Excel", new Object[]{excelFile});
+        keywordIndex.runKeyword("select_sheet", new Object[]{"Sheet1"});
+        Assert.assertEquals("Carol", keywordIndex.runKeyword("Get Cell Data", new Object[]{"2", "1"}));
+    }
+
+
     @After
     public void tearDown() {
 